@@ -0,0 +1,320 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Stress tests of the event map under concurrent inserts, in the manner of
+ * jcstress: each test has actors, which run at once on their own threads
+ * from a common barrier, and an arbiter, which reads the outcome once they
+ * are done. Each test is run many times on fresh state, and the outcomes are
+ * counted and reported as acceptable or forbidden. It is not a JMH
+ * benchmark, and is run on its own:
+ *
+ * java -cp target/benchmarks.jar scl.oms.outagemap.EventMapStress [iterations]
+ *
+ * The exit status is 1 if a forbidden outcome was seen. As with jcstress, a
+ * clean run shows the absence of the failures it provoked, on this machine;
+ * it proves nothing, and races show more often with more processors.
+ *
+ * @author jstewart
+ */
+public class EventMapStress {
+
+    private static final int DEFAULT_ITERATIONS = 2000;
+    private static final double STEP = 0.00002; // degrees between points, so 50 steps are within a supply node
+    private static final long EVENT_BEGIN = 1476700000000L;
+
+    private static double centerX;
+    private static double centerY;
+
+    private EventMapStress() {
+        super();
+    }
+
+    /**
+     * One stress test: its actors change shared state at once, and its
+     * arbiter then describes the outcome.
+     */
+    private interface StressTest {
+
+        int getActorCount();
+
+        void setUp();
+
+        void actor(int actor);
+
+        String arbiter();
+
+        boolean isAcceptable(String outcome);
+    }
+
+    /**
+     * @param args the number of iterations of each test (default 2000)
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+
+        Config.INSTANCE.resetConfig();
+        Config.INSTANCE.setLogDirectory(System.getProperty("java.io.tmpdir"));
+        Config.INSTANCE.setInputProjWKID(ProjectTool.WGS84_WKID);
+        Config.INSTANCE.setOutputProjWKID(ProjectTool.WGS84_WKID);
+        Log.getLogger("");
+        centerX = Config.INSTANCE.getServiceEnvelope().getCenterX();
+        centerY = Config.INSTANCE.getServiceEnvelope().getCenterY();
+
+        boolean forbiddenSeen = false;
+        forbiddenSeen |= EventMapStress.run("InsertSameEvent", new InsertSameEvent(), iterations);
+        forbiddenSeen |= EventMapStress.run("InsertManyEvents", new InsertManyEvents(), iterations);
+        forbiddenSeen |= EventMapStress.run("AddWhileRemoved", new AddWhileRemoved(), iterations);
+        forbiddenSeen |= EventMapStress.run("InvalidateWhileComputing", new InvalidateWhileComputing(), iterations);
+        Log.closeLogger();
+        System.exit(forbiddenSeen ? 1 : 0);
+    }
+
+    // Runs a test, reporting its outcomes, and returns true if any was forbidden.
+    private static boolean run(String testName, final StressTest test, int iterations) {
+        final int actorCount = test.getActorCount();
+        final CyclicBarrier start = new CyclicBarrier(actorCount + 1);
+        final CyclicBarrier finish = new CyclicBarrier(actorCount + 1);
+        final int[] remaining = {iterations};
+        Thread[] actors = new Thread[actorCount];
+        for (int i = 0; i < actorCount; i++) {
+            final int actor = i;
+            actors[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            start.await();
+                            if (remaining[0] == 0) {
+                                return;
+                            }
+                            test.actor(actor);
+                            finish.await();
+                        }
+                    } catch (InterruptedException | BrokenBarrierException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "stress-actor-" + i);
+            actors[i].setDaemon(true);
+            actors[i].start();
+        }
+
+        Map<String, Integer> outcomes = new TreeMap();
+        try {
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                test.setUp();
+                start.await(); // the barriers order the set up, the actors and the arbiter
+                finish.await();
+                String outcome = test.arbiter();
+                Integer count = outcomes.get(outcome);
+                outcomes.put(outcome, (count == null) ? 1 : count + 1);
+            }
+            remaining[0] = 0;
+            start.await();
+        } catch (InterruptedException | BrokenBarrierException ex) {
+            throw new IllegalStateException("Stress test " + testName + " was interrupted.", ex);
+        }
+
+        boolean forbiddenSeen = false;
+        System.out.printf("%s, %d iteration(s) of %d actor(s):%n", testName, iterations, actorCount);
+        for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+            boolean acceptable = test.isAcceptable(outcome.getKey());
+            forbiddenSeen |= !acceptable;
+            System.out.printf("  %-40s %8d  %s%n", outcome.getKey(), outcome.getValue(),
+                    acceptable ? "ACCEPTABLE" : "FORBIDDEN");
+        }
+        return forbiddenSeen;
+    }
+
+    // Adds a point to an event of the map, with fixed attributes.
+    private static boolean addPoint(EventMap events, long eventIdx, long supplyIdx, int step) {
+        return events.addPoint(eventIdx, supplyIdx, centerX + step * STEP, centerY + (step % 7) * STEP,
+                "cause", "etor", 1, EVENT_BEGIN, false);
+    }
+
+    // Four actors add points to one event, each to a supply node of its own
+    // and to a supply node they share. No point may be lost.
+    private static class InsertSameEvent implements StressTest {
+
+        private static final int ACTORS = 4;
+        private static final int POINTS = 50;
+        private static final long SHARED_SUPPLY_IDX = 100;
+        private EventMap events;
+
+        @Override
+        public int getActorCount() {
+            return ACTORS;
+        }
+
+        @Override
+        public void setUp() {
+            events = new EventMap();
+        }
+
+        @Override
+        public void actor(int actor) {
+            for (int i = 0; i < POINTS; i++) {
+                EventMapStress.addPoint(events, 1, (i % 2 == 0) ? actor : SHARED_SUPPLY_IDX, i);
+            }
+        }
+
+        @Override
+        public String arbiter() {
+            SupplyNodeMap supplyNodes = events.getSupplyNodeMap(1);
+            return "events=" + events.size() + " supplyNodes=" + supplyNodes.size()
+                    + " points=" + supplyNodes.getPointCount();
+        }
+
+        @Override
+        public boolean isAcceptable(String outcome) {
+            return outcome.equals("events=1 supplyNodes=" + (ACTORS + 1) + " points=" + (ACTORS * POINTS));
+        }
+    }
+
+    // Four actors add points to the same many events, in different orders, so
+    // that events are created on one thread while found on another.
+    private static class InsertManyEvents implements StressTest {
+
+        private static final int ACTORS = 4;
+        private static final int EVENTS = 200;
+        private EventMap events;
+
+        @Override
+        public int getActorCount() {
+            return ACTORS;
+        }
+
+        @Override
+        public void setUp() {
+            events = new EventMap();
+        }
+
+        @Override
+        public void actor(int actor) {
+            for (int i = 0; i < EVENTS; i++) {
+                int event = (actor % 2 == 0) ? i : EVENTS - 1 - i;
+                EventMapStress.addPoint(events, event, 1000L * event + actor, actor);
+            }
+        }
+
+        @Override
+        public String arbiter() {
+            int points = 0;
+            for (long eventIdx : events.getEventIdxs()) {
+                points += events.getSupplyNodeMap(eventIdx).getPointCount();
+            }
+            return "events=" + events.size() + " supplyNodes=" + events.getSupplyNodeCount() + " points=" + points;
+        }
+
+        @Override
+        public boolean isAcceptable(String outcome) {
+            return outcome.equals("events=" + EVENTS + " supplyNodes=" + (ACTORS * EVENTS)
+                    + " points=" + (ACTORS * EVENTS));
+        }
+    }
+
+    // One actor restores an event's only customer, which removes the event,
+    // while the other adds a customer to it. The added customer may not be
+    // lost with the removed event.
+    private static class AddWhileRemoved implements StressTest {
+
+        private EventMap events;
+        private Point restored;
+
+        @Override
+        public int getActorCount() {
+            return 2;
+        }
+
+        @Override
+        public void setUp() {
+            events = new EventMap();
+            EventMapStress.addPoint(events, 1, 1, 0);
+            restored = new Point(centerX, centerY);
+        }
+
+        @Override
+        public void actor(int actor) {
+            if (actor == 0) {
+                events.removePoint(1, 1, restored);
+            } else {
+                EventMapStress.addPoint(events, 1, 2, 3);
+            }
+        }
+
+        @Override
+        public String arbiter() {
+            SupplyNodeMap supplyNodes = events.getSupplyNodeMap(1);
+            if (supplyNodes == null) {
+                return "event removed";
+            }
+            return "event present, points=" + supplyNodes.getPointCount();
+        }
+
+        @Override
+        public boolean isAcceptable(String outcome) {
+            return outcome.equals("event present, points=1");
+        }
+    }
+
+    // One actor computes an event's polygons while the other adds a point
+    // outside of them. Once both are done, the polygons must include the
+    // point, so the invalidation may not be lost.
+    private static class InvalidateWhileComputing implements StressTest {
+
+        private SupplyNodeMap supplyNodes;
+        private double addedX;
+        private double addedY;
+
+        @Override
+        public int getActorCount() {
+            return 2;
+        }
+
+        @Override
+        public void setUp() {
+            supplyNodes = new SupplyNodeMap();
+            supplyNodes.addPoint(1, centerX, centerY);
+            supplyNodes.addPoint(1, centerX + STEP, centerY);
+            supplyNodes.addPoint(1, centerX, centerY + STEP);
+            supplyNodes.getPolygons();
+            addedX = centerX + 20 * STEP;
+            addedY = centerY + 20 * STEP;
+        }
+
+        @Override
+        public void actor(int actor) {
+            if (actor == 0) {
+                supplyNodes.getPolygons();
+            } else {
+                supplyNodes.addPoint(1, addedX, addedY);
+            }
+        }
+
+        @Override
+        public String arbiter() {
+            Envelope2D envelope = new Envelope2D();
+            for (Polygon polygon : supplyNodes.getPolygons()) {
+                Envelope2D polygonEnvelope = new Envelope2D();
+                polygon.queryEnvelope2D(polygonEnvelope);
+                envelope.merge(polygonEnvelope);
+            }
+            return envelope.contains(addedX, addedY) ? "polygons include the point" : "polygons are stale";
+        }
+
+        @Override
+        public boolean isAcceptable(String outcome) {
+            return outcome.equals("polygons include the point");
+        }
+    }
+}
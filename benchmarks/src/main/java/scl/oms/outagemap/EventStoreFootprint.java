@@ -0,0 +1,76 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Measures the heap retained by the event map per event, by filling it from
+ * a synthetic input and comparing the heap used before and after. It is not
+ * a JMH benchmark, as the footprint is a size rather than a time, and is run
+ * on its own:
+ *
+ * java -cp target/benchmarks.jar scl.oms.outagemap.EventStoreFootprint
+ * [events] [supply nodes per event] [customers per supply node]
+ *
+ * The defaults are those of a storm: many events of a single transformer and
+ * a few customers.
+ *
+ * @author jstewart
+ */
+public class EventStoreFootprint {
+
+    private static final long SEED = 20160101L;
+    private static final double SPREAD = 0.03; // keeps points within the max supply node distance
+
+    private EventStoreFootprint() {
+        super();
+    }
+
+    /**
+     * @param args the number of events (default 20000), supply nodes per
+     * event (default 1) and customers per supply node (default 4)
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        int eventCount = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int nodesPerEvent = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        int pointsPerNode = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+
+        Config.INSTANCE.resetConfig();
+        Config.INSTANCE.setLogDirectory(System.getProperty("java.io.tmpdir"));
+        Config.INSTANCE.setInputProjWKID(ProjectTool.WGS84_WKID);
+        Config.INSTANCE.setOutputProjWKID(ProjectTool.WGS84_WKID);
+        Log.getLogger("");
+
+        IngestPipeline ingestPipeline = new IngestPipeline(Config.INSTANCE.getIngestBatchSize(), 0, 4);
+        ServiceTerritory serviceTerritory = OutageDataFactory.getServiceTerritory();
+
+        long heapBefore = EventStoreFootprint.usedHeap();
+        EventMap events = new EventMap();
+        ingestPipeline.ingest(new SyntheticCustomerSource(SEED, eventCount, nodesPerEvent, pointsPerNode, SPREAD, 0.0,
+                Config.INSTANCE.getServiceEnvelope(), ProjectTool.WGS84_WKID, ProjectTool.WGS84_WKID),
+                events, serviceTerritory);
+        long heapAfter = EventStoreFootprint.usedHeap();
+
+        int pointCount = ingestPipeline.getRecordsMapped();
+        long retained = heapAfter - heapBefore;
+        System.out.printf("%d event(s), %d supply node(s) per event, %d customer(s) per supply node: "
+                + "%d byte(s) retained, %d per event, %d per customer point%n",
+                events.size(), nodesPerEvent, pointsPerNode, retained,
+                retained / Math.max(1, events.size()), retained / Math.max(1, pointCount));
+        ingestPipeline.shutdown();
+        Log.closeLogger();
+    }
+
+    // The heap in use once the garbage is collected, as near as can be told.
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
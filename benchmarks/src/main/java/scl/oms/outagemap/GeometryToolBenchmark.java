@@ -0,0 +1,74 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the center of mass of an event's supply node polygons, and
+ * cleaning the union of the supply node polygons.
+ *
+ * @author jstewart
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryToolBenchmark {
+
+    private Polygon[] supplyNodePolygons;
+    private Polygon unionPolygon;
+    private Polygon dirtyPolygon;
+
+    /**
+     * Computes the unmerged supply node polygons, and their union.
+     *
+     * @param state the benchmark input
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp(OutageBenchmarkState state) throws Exception {
+        supplyNodePolygons = new Polygon[state.nodesPerEvent];
+        for (int node = 0; node < state.nodesPerEvent; node++) {
+            supplyNodePolygons[node] = state.newPointQueue(node).getPolygon();
+        }
+        unionPolygon = (Polygon) GeometryEngine.union(supplyNodePolygons,
+                SpatialReference.create(Config.INSTANCE.getOutputProjWKID()));
+    }
+
+    /**
+     * Copies the union, as .cleanPolygon(polygon) removes its paths.
+     */
+    @Setup(Level.Invocation)
+    public void copyUnion() {
+        dirtyPolygon = (Polygon) unionPolygon.copy();
+    }
+
+    @Benchmark
+    public void getPolygonCenterOfMass(Blackhole blackhole) {
+        for (Polygon polygon : supplyNodePolygons) {
+            blackhole.consume(GeometryTool.getPolygonCenterOfMass(polygon));
+        }
+    }
+
+    @Benchmark
+    public Geometry cleanPolygon() {
+        return GeometryTool.cleanPolygon(dirtyPolygon);
+    }
+}
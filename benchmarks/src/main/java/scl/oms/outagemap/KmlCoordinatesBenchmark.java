@@ -0,0 +1,60 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Polygon;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing the KML coordinates of an event's polygons, as done by
+ * KmlCreator.createKml.
+ *
+ * @author jstewart
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KmlCoordinatesBenchmark {
+
+    private Polygon[] eventPolygons;
+    private DecimalFormat decimalFormat;
+    private CharArrayWriter output;
+
+    /**
+     * Computes the event's polygons.
+     *
+     * @param state the benchmark input
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp(OutageBenchmarkState state) throws Exception {
+        eventPolygons = state.newSupplyNodeMap().getPolygons();
+        decimalFormat = new DecimalFormat("0.0000000");
+        output = new CharArrayWriter(1 << 16);
+    }
+
+    @Benchmark
+    public int writeCoordinates() throws IOException {
+        output.reset();
+        int pointsWritten = 0;
+        for (Polygon polygon : eventPolygons) {
+            pointsWritten += KmlCreator.writeCoordinates(output, polygon, decimalFormat);
+        }
+        return pointsWritten;
+    }
+}
@@ -0,0 +1,91 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The benchmark input: one synthetic event, by points per supply node and
+ * supply nodes per event, in WGS84 within the default service envelope.
+ * Buffering and merging are on, as configured by default; a benchmark may
+ * change them once this state has been set up.
+ *
+ * @author jstewart
+ */
+@State(Scope.Benchmark)
+public class OutageBenchmarkState {
+
+    private static final long SEED = 20160101L;
+    private static final double SPREAD = 0.03; // keeps points within the max supply node distance
+
+    @Param({"4", "32", "256"})
+    public int pointsPerNode;
+
+    @Param({"1", "16", "128"})
+    public int nodesPerEvent;
+
+    /**
+     * The customer points, by [supply node][customer].
+     */
+    public Point[][] points;
+
+    /**
+     * The supply node ids, by supply node.
+     */
+    public long[] supplyNodeIds;
+
+    /**
+     * Configures the application and generates the event.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Config.INSTANCE.resetConfig();
+        Config.INSTANCE.setInputProjWKID(ProjectTool.WGS84_WKID);
+        Config.INSTANCE.setOutputProjWKID(ProjectTool.WGS84_WKID);
+
+        SyntheticCustomerSource source = new SyntheticCustomerSource(SEED, 1, nodesPerEvent, pointsPerNode,
+                SPREAD, 0.0, Config.INSTANCE.getServiceEnvelope(), ProjectTool.WGS84_WKID, ProjectTool.WGS84_WKID);
+        CustomerBatch batch = new CustomerBatch(nodesPerEvent * pointsPerNode);
+        source.read(batch);
+        source.close();
+
+        points = new Point[nodesPerEvent][pointsPerNode];
+        supplyNodeIds = new long[nodesPerEvent];
+        for (int row = 0; row < batch.size(); row++) {
+            int node = row / pointsPerNode;
+            points[node][row % pointsPerNode] = new Point(batch.getCustomerX(row), batch.getCustomerY(row));
+            supplyNodeIds[node] = batch.getSupplyIdx(row);
+        }
+    }
+
+    /**
+     * @return a new supply node map of the event
+     */
+    public SupplyNodeMap newSupplyNodeMap() {
+        SupplyNodeMap supplyNodeMap = new SupplyNodeMap();
+        for (int node = 0; node < nodesPerEvent; node++) {
+            for (Point point : points[node]) {
+                supplyNodeMap.addPoint(supplyNodeIds[node], point);
+            }
+        }
+        return supplyNodeMap;
+    }
+
+    /**
+     * @param node the supply node
+     * @return a new point queue of the supply node
+     */
+    public PointQueue newPointQueue(int node) {
+        PointQueue pointQueue = new PointQueue();
+        for (Point point : points[node]) {
+            pointQueue.addPoint(point);
+        }
+        return pointQueue;
+    }
+}
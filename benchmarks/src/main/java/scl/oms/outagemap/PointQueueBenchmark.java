@@ -0,0 +1,130 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks adding the points of an event's supply nodes, computing the
+ * supply node polygons, and adding one more customer to each supply node of a
+ * computed event, with buffering on and off. The points are also added as
+ * apartment buildings would report them, each point several times over, which
+ * are then within the hull.
+ *
+ * @author jstewart
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointQueueBenchmark {
+
+    private static final int CUSTOMERS_PER_POINT = 8; // meters of a building
+
+    @Param({"true", "false"})
+    public boolean bufferOn;
+
+    private PointQueue[] pointQueues;
+
+    /**
+     * Sets the buffering, once the input has been set up.
+     *
+     * @param state the benchmark input
+     */
+    @Setup(Level.Trial)
+    public void configure(OutageBenchmarkState state) {
+        Config.INSTANCE.setBufferOn(bufferOn);
+    }
+
+    /**
+     * Fills new point queues, as .getPolygon() returns the cached polygon of
+     * an unmodified point queue.
+     *
+     * @param state the benchmark input
+     * @throws Exception
+     */
+    @Setup(Level.Invocation)
+    public void fillPointQueues(OutageBenchmarkState state) throws Exception {
+        pointQueues = new PointQueue[state.nodesPerEvent];
+        for (int node = 0; node < state.nodesPerEvent; node++) {
+            pointQueues[node] = state.newPointQueue(node);
+        }
+    }
+
+    @Benchmark
+    public void addPoint(OutageBenchmarkState state, Blackhole blackhole) throws Exception {
+        for (int node = 0; node < state.nodesPerEvent; node++) {
+            blackhole.consume(state.newPointQueue(node));
+        }
+    }
+
+    @Benchmark
+    public void addDuplicatePoints(OutageBenchmarkState state, Blackhole blackhole) {
+        for (int node = 0; node < state.nodesPerEvent; node++) {
+            PointQueue pointQueue = new PointQueue();
+            // in passes over the points, so that a repeated point is not the last added
+            for (int customer = 0; customer < CUSTOMERS_PER_POINT; customer++) {
+                for (Point point : state.points[node]) {
+                    pointQueue.addPoint(point);
+                }
+            }
+            blackhole.consume(pointQueue);
+        }
+    }
+
+    @Benchmark
+    public void addPointAndGetPolygon(ComputedPointQueues computed, Blackhole blackhole) throws Exception {
+        for (PointQueue pointQueue : computed.pointQueues) {
+            Point labelPoint = pointQueue.getLabelPoint();
+            pointQueue.addPoint(labelPoint.getX(), labelPoint.getY()); // within the hull
+            blackhole.consume(pointQueue.getPolygon());
+        }
+    }
+
+    @Benchmark
+    public void getPolygon(Blackhole blackhole) {
+        for (PointQueue pointQueue : pointQueues) {
+            Polygon polygon = pointQueue.getPolygon();
+            blackhole.consume(polygon);
+        }
+    }
+
+    /**
+     * Point queues whose polygons have been computed, as in a refresh cycle.
+     */
+    @State(Scope.Thread)
+    public static class ComputedPointQueues {
+
+        private PointQueue[] pointQueues;
+
+        /**
+         * Fills and computes new point queues.
+         *
+         * @param state the benchmark input
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void computePointQueues(OutageBenchmarkState state) throws Exception {
+            pointQueues = new PointQueue[state.nodesPerEvent];
+            for (int node = 0; node < state.nodesPerEvent; node++) {
+                pointQueues[node] = state.newPointQueue(node);
+                pointQueues[node].getPolygon();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks projecting an event's points, in both directions, as Points
+ * and in bulk as coordinate arrays.
+ *
+ * @author jstewart
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectToolBenchmark {
+
+    private Point[] wgs84Points;
+    private Point[] statePlanePoints;
+    private double[] wgs84Xs;
+    private double[] wgs84Ys;
+    private double[] statePlaneXs;
+    private double[] statePlaneYs;
+    private double[] projectedXs;
+    private double[] projectedYs;
+
+    /**
+     * Flattens the event's points, in both coordinate systems.
+     *
+     * @param state the benchmark input
+     */
+    @Setup(Level.Trial)
+    public void setUp(OutageBenchmarkState state) {
+        wgs84Points = new Point[state.nodesPerEvent * state.pointsPerNode];
+        statePlanePoints = new Point[wgs84Points.length];
+        int i = 0;
+        for (Point[] nodePoints : state.points) {
+            for (Point point : nodePoints) {
+                wgs84Points[i] = point;
+                statePlanePoints[i] = ProjectTool.project(point, ProjectTool.WGS84_WKID, ProjectTool.WSP83_WKID);
+                i++;
+            }
+        }
+
+        wgs84Xs = new double[wgs84Points.length];
+        wgs84Ys = new double[wgs84Points.length];
+        statePlaneXs = new double[wgs84Points.length];
+        statePlaneYs = new double[wgs84Points.length];
+        for (i = 0; i < wgs84Points.length; i++) {
+            wgs84Xs[i] = wgs84Points[i].getX();
+            wgs84Ys[i] = wgs84Points[i].getY();
+            statePlaneXs[i] = statePlanePoints[i].getX();
+            statePlaneYs[i] = statePlanePoints[i].getY();
+        }
+        projectedXs = new double[wgs84Points.length];
+        projectedYs = new double[wgs84Points.length];
+    }
+
+    @Benchmark
+    public void projectToStatePlane(Blackhole blackhole) {
+        for (Point point : wgs84Points) {
+            blackhole.consume(ProjectTool.project(point, ProjectTool.WGS84_WKID, ProjectTool.WSP83_WKID));
+        }
+    }
+
+    @Benchmark
+    public void projectToWgs84(Blackhole blackhole) {
+        for (Point point : statePlanePoints) {
+            blackhole.consume(ProjectTool.project(point, ProjectTool.WSP83_WKID, ProjectTool.WGS84_WKID));
+        }
+    }
+
+    @Benchmark
+    public double[] projectArraysToStatePlane() {
+        ProjectTool.getTransform(ProjectTool.WGS84_WKID, ProjectTool.WSP83_WKID)
+                .project(wgs84Xs, wgs84Ys, projectedXs, projectedYs, wgs84Xs.length);
+        return projectedXs;
+    }
+
+    @Benchmark
+    public double[] projectArraysToWgs84() {
+        ProjectTool.getTransform(ProjectTool.WSP83_WKID, ProjectTool.WGS84_WKID)
+                .project(statePlaneXs, statePlaneYs, projectedXs, projectedYs, statePlaneXs.length);
+        return projectedXs;
+    }
+}
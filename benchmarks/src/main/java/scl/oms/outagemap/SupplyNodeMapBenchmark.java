@@ -0,0 +1,62 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Polygon;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks computing an event's polygons, with merging on and off.
+ *
+ * @author jstewart
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SupplyNodeMapBenchmark {
+
+    @Param({"true", "false"})
+    public boolean mergeOn;
+
+    private SupplyNodeMap supplyNodeMap;
+
+    /**
+     * Sets the merging, once the input has been set up.
+     *
+     * @param state the benchmark input
+     */
+    @Setup(Level.Trial)
+    public void configure(OutageBenchmarkState state) {
+        Config.INSTANCE.setMergeOn(mergeOn);
+    }
+
+    /**
+     * Fills a new supply node map, as .getPolygons() returns the cached
+     * polygons of an unmodified supply node map.
+     *
+     * @param state the benchmark input
+     * @throws Exception
+     */
+    @Setup(Level.Invocation)
+    public void fillSupplyNodeMap(OutageBenchmarkState state) throws Exception {
+        supplyNodeMap = state.newSupplyNodeMap();
+    }
+
+    @Benchmark
+    public Polygon[] getPolygons() {
+        return supplyNodeMap.getPolygons();
+    }
+}
@@ -1,9 +1,11 @@
 package scl.oms.outagemap;
 
 import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Polygon;
 import java.io.FileReader;
 import java.io.IOException;
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 
@@ -20,24 +22,61 @@ public enum Config {
     private boolean debugMode;
     private String logDirectory;
     private String environmentLabel;
+    private boolean serviceMode;
+    private int refreshIntervalSeconds;
     private boolean bufferOn;
     private boolean mergeOn;
     private boolean convexHullEvents;
     private double maxSupplyNodePointDist;
     private double densifyDistDegrees;
     private int densifyMaxVertices;
+    private boolean convexBufferOn;
+    private boolean polygonCacheOn;
+    private String polygonCacheFile;
+    private int polygonCacheMaxEntries;
+    private int polygonCacheMaxAgeHours;
+    private double polygonCacheQuantumDegrees;
+    private String footprintAtlasFile;
+    private String footprintAtlasSQL;
+    private double footprintAtlasThreshold;
     private double bufferDistDegrees;
     private double pointExpandDegrees;
+    private double pointSnapDegrees;
     private Envelope serviceEnvelope;
     private int serviceEnvelopeWkid;
+    private Polygon serviceTerritory; // null to use the serviceEnvelope
+    private int serviceTerritoryWkid;
+    private int territoryGridSize;
     private int supplyNodeMapCapacity;
     private float supplyNodeMapLoading;
     private int customerMapCapacity;
     private float customerMapLoading;
+    private int ingestBatchSize;
+    private int ingestWorkerCount;
+    private int ingestQueueCapacity;
+    private int rejectSampleSize;
+    private int geometryParallelism;
+    private boolean streamingIngestOn;
+    private String inputSource; // "oracle", "replay", "synthetic"
+    private String replayFile;
+    private String recordFile;
+    private long syntheticSeed;
+    private int syntheticEventCount;
+    private int syntheticSupplyNodesPerEvent;
+    private int syntheticCustomersPerSupplyNode;
+    private double syntheticSpread;
+    private double syntheticOutlierRate;
     private String sourceDbConn; // "SYNERGEN/synergen1@//localhost:1521"
     private String sourceDbSQL;
+    private int sourceDbFetchSize;
+    private int sourceDbPartitions;
+    private boolean incrementalOn;
+    private String sourceDbDeltaSQL;
+    private int incrementalFullRefreshCycles;
     private int inputProjWKID;
     private int outputProjWKID;
+    private boolean planarGeometryOn;
+    private double planarUnitsPerDegree;
     private String fileOutputName;
     private long fileMaxSizeBytes;
     private boolean outputToKml; // true
@@ -64,28 +103,65 @@ public enum Config {
         this.setDebugMode(true);
         this.setLogDirectory("");
         this.setEnvironmentLabel("unknown");
+        this.setServiceMode(false);
+        this.setRefreshIntervalSeconds(60);
         this.setBufferOn(true);
         this.setMergeOn(true);
         this.setConvexHullEvents(true);
         this.setMaxSupplyNodePointDist(0.001799646);
         this.setDensifyDistDegrees(12.9590696961);
         this.setDensifyMaxVertices(16);
+        this.setConvexBufferOn(true);
+        this.setPolygonCacheOn(false);
+        this.setPolygonCacheFile("");
+        this.setPolygonCacheMaxEntries(200000);
+        this.setPolygonCacheMaxAgeHours(72);
+        this.setPolygonCacheQuantumDegrees(0.0000001); // about 1 cm
+        this.setFootprintAtlasFile("");
+        this.setFootprintAtlasSQL("");
+        this.setFootprintAtlasThreshold(0.8);
         this.setBufferDistDegrees(0.0002964440);
         this.setPointExpandDegrees(0.000035);
+        this.setPointSnapDegrees(0.0); // identical points only
         this.setServiceEnvelope(new Envelope());
         this.setServiceEnvelopeWkid(ProjectTool.WGS84_WKID);
         this.getServiceEnvelope().setXMin(-122.50);
         this.getServiceEnvelope().setYMin(47.40);
         this.getServiceEnvelope().setXMax(-122.20);
         this.getServiceEnvelope().setYMax(47.80);
+        this.setServiceTerritory(null);
+        this.setServiceTerritoryWkid(ProjectTool.WGS84_WKID);
+        this.setTerritoryGridSize(64);
         this.setSupplyNodeMapCapacity(237);
         this.setSupplyNodeMapLoading(0.68f);
         this.setCustomerMapCapacity(22);
         this.setCustomerMapLoading(0.68f);
+        this.setIngestBatchSize(1024);
+        this.setIngestWorkerCount(0);
+        this.setIngestQueueCapacity(8);
+        this.setRejectSampleSize(5);
+        this.setGeometryParallelism(Runtime.getRuntime().availableProcessors());
+        this.setStreamingIngestOn(false);
+        this.setInputSource("oracle");
+        this.setReplayFile("");
+        this.setRecordFile("");
+        this.setSyntheticSeed(1);
+        this.setSyntheticEventCount(3000);
+        this.setSyntheticSupplyNodesPerEvent(10);
+        this.setSyntheticCustomersPerSupplyNode(10);
+        this.setSyntheticSpread(0.02);
+        this.setSyntheticOutlierRate(0.001);
         this.setSourceDbConn("unknown");
         this.setSourceDbSQL("SELECT * FROM DUAL");
+        this.setSourceDbFetchSize(0);
+        this.setSourceDbPartitions(1);
+        this.setIncrementalOn(false);
+        this.setSourceDbDeltaSQL("SELECT * FROM DUAL");
+        this.setIncrementalFullRefreshCycles(60);
         this.setInputProjWKID(102113);
         this.setOutputProjWKID(102113);
+        this.setPlanarGeometryOn(false);
+        this.setPlanarUnitsPerDegree(364700.0); // feet per degree of latitude, at about 47.6N
         this.setFileOutputName("outage_map");
         this.setFileMaxSizeBytes(5242880); // 5MB
         this.setOutputToKml(false);
@@ -115,14 +191,32 @@ public enum Config {
             this.setDebugMode(jsonObject.getBoolean("debugMode"));
             this.setLogDirectory(jsonObject.getString("logDirectory"));
             this.setEnvironmentLabel(jsonObject.getString("environmentLabel"));
+            this.setServiceMode(jsonObject.getBoolean("serviceMode", this.isServiceMode()));
+            this.setRefreshIntervalSeconds(jsonObject.getInt("refreshIntervalSeconds", this.getRefreshIntervalSeconds()));
             this.setBufferOn(jsonObject.getBoolean("bufferOn"));
             this.setMergeOn(jsonObject.getBoolean("mergeOn"));
             this.setConvexHullEvents(jsonObject.getBoolean("convexHullEvents"));
             this.setMaxSupplyNodePointDist(jsonObject.getJsonNumber("maxSupplyNodePointDist").doubleValue());
             this.setDensifyDistDegrees(jsonObject.getJsonNumber("densifyDistDegrees").doubleValue());
-            this.setDensifyDistDegrees(jsonObject.getJsonNumber("densifyMaxVertices").intValue());
+            this.setDensifyMaxVertices(jsonObject.getJsonNumber("densifyMaxVertices").intValue());
+            this.setConvexBufferOn(jsonObject.getBoolean("convexBufferOn", this.isConvexBufferOn()));
+            this.setPolygonCacheOn(jsonObject.getBoolean("polygonCacheOn", this.isPolygonCacheOn()));
+            this.setPolygonCacheFile(jsonObject.getString("polygonCacheFile", this.getPolygonCacheFile()));
+            this.setPolygonCacheMaxEntries(jsonObject.getInt("polygonCacheMaxEntries", this.getPolygonCacheMaxEntries()));
+            this.setPolygonCacheMaxAgeHours(jsonObject.getInt("polygonCacheMaxAgeHours", this.getPolygonCacheMaxAgeHours()));
+            if (jsonObject.containsKey("polygonCacheQuantumDegrees")) {
+                this.setPolygonCacheQuantumDegrees(jsonObject.getJsonNumber("polygonCacheQuantumDegrees").doubleValue());
+            }
+            this.setFootprintAtlasFile(jsonObject.getString("footprintAtlasFile", this.getFootprintAtlasFile()));
+            this.setFootprintAtlasSQL(jsonObject.getString("footprintAtlasSQL", this.getFootprintAtlasSQL()));
+            if (jsonObject.containsKey("footprintAtlasThreshold")) {
+                this.setFootprintAtlasThreshold(jsonObject.getJsonNumber("footprintAtlasThreshold").doubleValue());
+            }
             this.setBufferDistDegrees(jsonObject.getJsonNumber("bufferDistDegrees").doubleValue());
             this.setPointExpandDegrees(jsonObject.getJsonNumber("pointExpandDegrees").doubleValue());
+            if (jsonObject.containsKey("pointSnapDegrees")) {
+                this.setPointSnapDegrees(jsonObject.getJsonNumber("pointSnapDegrees").doubleValue());
+            }
             JsonObject jsonEvelopeObj;
             jsonEvelopeObj = jsonObject.getJsonObject("envelope");
             this.getServiceEnvelope().setXMin(jsonEvelopeObj.getJsonNumber("xmin").doubleValue());
@@ -132,14 +226,68 @@ public enum Config {
             JsonObject jsonEvelopeWkidObj;
             jsonEvelopeWkidObj = jsonEvelopeObj.getJsonObject("spatialReference");
             this.setServiceEnvelopeWkid(jsonEvelopeWkidObj.getJsonNumber("wkid").intValue());
+            if (jsonObject.containsKey("territory")) {
+                // an Esri JSON polygon: {"rings": [[[x, y], ...], ...], "spatialReference": {"wkid": n}}
+                JsonObject jsonTerritoryObj = jsonObject.getJsonObject("territory");
+                Polygon territory = new Polygon();
+                for (JsonArray jsonRing : jsonTerritoryObj.getJsonArray("rings").getValuesAs(JsonArray.class)) {
+                    for (int i = 0; i < jsonRing.size(); i++) {
+                        JsonArray jsonVertex = jsonRing.getJsonArray(i);
+                        double x = jsonVertex.getJsonNumber(0).doubleValue();
+                        double y = jsonVertex.getJsonNumber(1).doubleValue();
+                        if (i == 0) {
+                            territory.startPath(x, y);
+                        } else {
+                            territory.lineTo(x, y);
+                        }
+                    }
+                }
+                this.setServiceTerritory(territory);
+                this.setServiceTerritoryWkid(jsonTerritoryObj.getJsonObject("spatialReference")
+                        .getJsonNumber("wkid").intValue());
+            }
+            this.setTerritoryGridSize(jsonObject.getInt("territoryGridSize", this.getTerritoryGridSize()));
             this.setSupplyNodeMapCapacity(jsonObject.getJsonNumber("supplyNodeMapCapacity").intValue());
             this.setSupplyNodeMapLoading((float) jsonObject.getJsonNumber("supplyNodeMapLoading").doubleValue());
             this.setCustomerMapCapacity(jsonObject.getJsonNumber("customerMapCapacity").intValue());
             this.setCustomerMapLoading((float) jsonObject.getJsonNumber("customerMapLoading").doubleValue());
+            this.setIngestBatchSize(jsonObject.getInt("ingestBatchSize", this.getIngestBatchSize()));
+            this.setIngestWorkerCount(jsonObject.getInt("ingestWorkerCount", this.getIngestWorkerCount()));
+            this.setIngestQueueCapacity(jsonObject.getInt("ingestQueueCapacity", this.getIngestQueueCapacity()));
+            this.setRejectSampleSize(jsonObject.getInt("rejectSampleSize", this.getRejectSampleSize()));
+            this.setGeometryParallelism(jsonObject.getInt("geometryParallelism", this.getGeometryParallelism()));
+            this.setStreamingIngestOn(jsonObject.getBoolean("streamingIngestOn", this.isStreamingIngestOn()));
+            this.setInputSource(jsonObject.getString("inputSource", this.getInputSource()));
+            this.setReplayFile(jsonObject.getString("replayFile", this.getReplayFile()));
+            this.setRecordFile(jsonObject.getString("recordFile", this.getRecordFile()));
+            if (jsonObject.containsKey("syntheticSeed")) {
+                this.setSyntheticSeed(jsonObject.getJsonNumber("syntheticSeed").longValue());
+            }
+            this.setSyntheticEventCount(jsonObject.getInt("syntheticEventCount", this.getSyntheticEventCount()));
+            this.setSyntheticSupplyNodesPerEvent(jsonObject.getInt("syntheticSupplyNodesPerEvent",
+                    this.getSyntheticSupplyNodesPerEvent()));
+            this.setSyntheticCustomersPerSupplyNode(jsonObject.getInt("syntheticCustomersPerSupplyNode",
+                    this.getSyntheticCustomersPerSupplyNode()));
+            if (jsonObject.containsKey("syntheticSpread")) {
+                this.setSyntheticSpread(jsonObject.getJsonNumber("syntheticSpread").doubleValue());
+            }
+            if (jsonObject.containsKey("syntheticOutlierRate")) {
+                this.setSyntheticOutlierRate(jsonObject.getJsonNumber("syntheticOutlierRate").doubleValue());
+            }
             this.setSourceDbConn(jsonObject.getString("sourceDbConn"));
             this.setSourceDbSQL(jsonObject.getString("sourceDbSQL"));
+            this.setSourceDbFetchSize(jsonObject.getInt("sourceDbFetchSize", this.getSourceDbFetchSize()));
+            this.setSourceDbPartitions(jsonObject.getInt("sourceDbPartitions", this.getSourceDbPartitions()));
+            this.setIncrementalOn(jsonObject.getBoolean("incrementalOn", this.isIncrementalOn()));
+            this.setSourceDbDeltaSQL(jsonObject.getString("sourceDbDeltaSQL", this.getSourceDbDeltaSQL()));
+            this.setIncrementalFullRefreshCycles(jsonObject.getInt("incrementalFullRefreshCycles",
+                    this.getIncrementalFullRefreshCycles()));
             this.setInputProjWKID(jsonObject.getJsonNumber("inputProjWKID").intValue());
             this.setOutputProjWKID(jsonObject.getJsonNumber("outputProjWKID").intValue());
+            this.setPlanarGeometryOn(jsonObject.getBoolean("planarGeometryOn", this.isPlanarGeometryOn()));
+            if (jsonObject.containsKey("planarUnitsPerDegree")) {
+                this.setPlanarUnitsPerDegree(jsonObject.getJsonNumber("planarUnitsPerDegree").doubleValue());
+            }
             this.setFileOutputName(jsonObject.getString("fileOutputName"));
             this.setFileMaxSizeBytes(jsonObject.getJsonNumber("fileMaxSizeBytes").longValue());
             this.setOutputToKml(jsonObject.getBoolean("outputToKml"));
@@ -187,6 +335,35 @@ public enum Config {
         this.environmentLabel = environmentLabel;
     }
 
+    /**
+     * @return the serviceMode, true to run resident and refresh the map at the
+     * refresh interval
+     */
+    public boolean isServiceMode() {
+        return serviceMode;
+    }
+
+    /**
+     * @param serviceMode the serviceMode to set
+     */
+    public void setServiceMode(boolean serviceMode) {
+        this.serviceMode = serviceMode;
+    }
+
+    /**
+     * @return the refreshIntervalSeconds
+     */
+    public int getRefreshIntervalSeconds() {
+        return refreshIntervalSeconds;
+    }
+
+    /**
+     * @param refreshIntervalSeconds the refreshIntervalSeconds to set
+     */
+    public void setRefreshIntervalSeconds(int refreshIntervalSeconds) {
+        this.refreshIntervalSeconds = refreshIntervalSeconds;
+    }
+
     /**
      * @return the bufferDistDegrees
      */
@@ -216,7 +393,25 @@ public enum Config {
     }
 
     /**
-     * @return the supplyNodeMapCapacity
+     * @return the pointSnapDegrees, the grid to which customer points are
+     * snapped, so that the points of a supply node in the same cell are held
+     * once, with a count. Zero snaps nothing, and only identical points are
+     * held once.
+     */
+    public double getPointSnapDegrees() {
+        return pointSnapDegrees;
+    }
+
+    /**
+     * @param pointSnapDegrees the pointSnapDegrees to set
+     */
+    public void setPointSnapDegrees(double pointSnapDegrees) {
+        this.pointSnapDegrees = pointSnapDegrees;
+    }
+
+    /**
+     * @return the supplyNodeMapCapacity, which is no longer used: the supply
+     * node maps start small and grow
      */
     public int getSupplyNodeMapCapacity() {
         return supplyNodeMapCapacity;
@@ -230,7 +425,8 @@ public enum Config {
     }
 
     /**
-     * @return the supplyNodeMapLoading
+     * @return the supplyNodeMapLoading, the load factor of the supply node
+     * maps' index
      */
     public float getSupplyNodeMapLoading() {
         return supplyNodeMapLoading;
@@ -313,6 +509,59 @@ public enum Config {
         this.outputProjWKID = outputProjWKID;
     }
 
+    /**
+     * @return the planarGeometryOn, true to compute the supply node and event
+     * polygons in the (planar) input coordinate system, and project only the
+     * finished polygons to the output coordinate system; this applies when
+     * the inputProjWKID is State Plane (2926)
+     */
+    public boolean isPlanarGeometryOn() {
+        return planarGeometryOn;
+    }
+
+    /**
+     * @param planarGeometryOn the planarGeometryOn to set
+     */
+    public void setPlanarGeometryOn(boolean planarGeometryOn) {
+        this.planarGeometryOn = planarGeometryOn;
+    }
+
+    /**
+     * @return the planarUnitsPerDegree, the input coordinate system units
+     * per degree, which converts the degree distances when planarGeometryOn
+     */
+    public double getPlanarUnitsPerDegree() {
+        return planarUnitsPerDegree;
+    }
+
+    /**
+     * @param planarUnitsPerDegree the planarUnitsPerDegree to set
+     */
+    public void setPlanarUnitsPerDegree(double planarUnitsPerDegree) {
+        this.planarUnitsPerDegree = planarUnitsPerDegree;
+    }
+
+    /**
+     * @return the WKID that the polygons are computed in: the input WKID when
+     * planarGeometryOn, else the output WKID
+     */
+    public int getGeometryProjWKID() {
+        return this.isGeometryPlanar() ? inputProjWKID : outputProjWKID;
+    }
+
+    /**
+     * @return the geometry units per degree, which the degree distances are
+     * multiplied by: the planarUnitsPerDegree when planarGeometryOn, else one
+     */
+    public double getGeometryUnitsPerDegree() {
+        return this.isGeometryPlanar() ? planarUnitsPerDegree : 1.0;
+    }
+
+    // The planar geometry mode applies to a State Plane input only.
+    private boolean isGeometryPlanar() {
+        return planarGeometryOn && (inputProjWKID == ProjectTool.WSP83_WKID);
+    }
+
     /**
      * @return the fileMaxSizeBytes
      */
@@ -341,6 +590,211 @@ public enum Config {
         this.sourceDbSQL = sourceDbSQL;
     }
 
+    /**
+     * @return the inputSource, "oracle" to read the customers out from the
+     * OMS/NMS database, "replay" to read them from the replayFile or
+     * "synthetic" to generate them
+     */
+    public String getInputSource() {
+        return inputSource;
+    }
+
+    /**
+     * @param inputSource the inputSource to set
+     */
+    public void setInputSource(String inputSource) {
+        this.inputSource = inputSource;
+    }
+
+    /**
+     * @return the replayFile, a customers out recording to replay
+     */
+    public String getReplayFile() {
+        return replayFile;
+    }
+
+    /**
+     * @param replayFile the replayFile to set
+     */
+    public void setReplayFile(String replayFile) {
+        this.replayFile = replayFile;
+    }
+
+    /**
+     * @return the recordFile, if not empty the customers out read are
+     * recorded to this file
+     */
+    public String getRecordFile() {
+        return recordFile;
+    }
+
+    /**
+     * @param recordFile the recordFile to set
+     */
+    public void setRecordFile(String recordFile) {
+        this.recordFile = recordFile;
+    }
+
+    /**
+     * @return the syntheticSeed, the random seed of the synthetic customers out
+     */
+    public long getSyntheticSeed() {
+        return syntheticSeed;
+    }
+
+    /**
+     * @param syntheticSeed the syntheticSeed to set
+     */
+    public void setSyntheticSeed(long syntheticSeed) {
+        this.syntheticSeed = syntheticSeed;
+    }
+
+    /**
+     * @return the syntheticEventCount, the number of synthetic events
+     */
+    public int getSyntheticEventCount() {
+        return syntheticEventCount;
+    }
+
+    /**
+     * @param syntheticEventCount the syntheticEventCount to set
+     */
+    public void setSyntheticEventCount(int syntheticEventCount) {
+        this.syntheticEventCount = syntheticEventCount;
+    }
+
+    /**
+     * @return the syntheticSupplyNodesPerEvent
+     */
+    public int getSyntheticSupplyNodesPerEvent() {
+        return syntheticSupplyNodesPerEvent;
+    }
+
+    /**
+     * @param syntheticSupplyNodesPerEvent the syntheticSupplyNodesPerEvent to set
+     */
+    public void setSyntheticSupplyNodesPerEvent(int syntheticSupplyNodesPerEvent) {
+        this.syntheticSupplyNodesPerEvent = syntheticSupplyNodesPerEvent;
+    }
+
+    /**
+     * @return the syntheticCustomersPerSupplyNode
+     */
+    public int getSyntheticCustomersPerSupplyNode() {
+        return syntheticCustomersPerSupplyNode;
+    }
+
+    /**
+     * @param syntheticCustomersPerSupplyNode the syntheticCustomersPerSupplyNode to set
+     */
+    public void setSyntheticCustomersPerSupplyNode(int syntheticCustomersPerSupplyNode) {
+        this.syntheticCustomersPerSupplyNode = syntheticCustomersPerSupplyNode;
+    }
+
+    /**
+     * @return the syntheticSpread, the radius an event's supply nodes are scattered
+     * within, as a share of the service envelope
+     */
+    public double getSyntheticSpread() {
+        return syntheticSpread;
+    }
+
+    /**
+     * @param syntheticSpread the syntheticSpread to set
+     */
+    public void setSyntheticSpread(double syntheticSpread) {
+        this.syntheticSpread = syntheticSpread;
+    }
+
+    /**
+     * @return the syntheticOutlierRate, the share of synthetic customers outside
+     * of the service envelope
+     */
+    public double getSyntheticOutlierRate() {
+        return syntheticOutlierRate;
+    }
+
+    /**
+     * @param syntheticOutlierRate the syntheticOutlierRate to set
+     */
+    public void setSyntheticOutlierRate(double syntheticOutlierRate) {
+        this.syntheticOutlierRate = syntheticOutlierRate;
+    }
+
+    /**
+     * @return the sourceDbFetchSize, the rows fetched per database round-trip,
+     * or zero for the driver default
+     */
+    public int getSourceDbFetchSize() {
+        return sourceDbFetchSize;
+    }
+
+    /**
+     * @param sourceDbFetchSize the sourceDbFetchSize to set
+     */
+    public void setSourceDbFetchSize(int sourceDbFetchSize) {
+        this.sourceDbFetchSize = sourceDbFetchSize;
+    }
+
+    /**
+     * @return the sourceDbPartitions, the number of connections the customers
+     * out are read on in parallel
+     */
+    public int getSourceDbPartitions() {
+        return sourceDbPartitions;
+    }
+
+    /**
+     * @param sourceDbPartitions the sourceDbPartitions to set
+     */
+    public void setSourceDbPartitions(int sourceDbPartitions) {
+        this.sourceDbPartitions = sourceDbPartitions;
+    }
+
+    /**
+     * @return the incrementalOn, true to apply only the changed customers out
+     * to the resident events when running as a service
+     */
+    public boolean isIncrementalOn() {
+        return incrementalOn;
+    }
+
+    /**
+     * @param incrementalOn the incrementalOn to set
+     */
+    public void setIncrementalOn(boolean incrementalOn) {
+        this.incrementalOn = incrementalOn;
+    }
+
+    /**
+     * @return the sourceDbDeltaSQL
+     */
+    public String getSourceDbDeltaSQL() {
+        return sourceDbDeltaSQL;
+    }
+
+    /**
+     * @param sourceDbDeltaSQL the sourceDbDeltaSQL to set
+     */
+    public void setSourceDbDeltaSQL(String sourceDbDeltaSQL) {
+        this.sourceDbDeltaSQL = sourceDbDeltaSQL;
+    }
+
+    /**
+     * @return the incrementalFullRefreshCycles, the number of cycles between
+     * full reads of the customers out
+     */
+    public int getIncrementalFullRefreshCycles() {
+        return incrementalFullRefreshCycles;
+    }
+
+    /**
+     * @param incrementalFullRefreshCycles the incrementalFullRefreshCycles to set
+     */
+    public void setIncrementalFullRefreshCycles(int incrementalFullRefreshCycles) {
+        this.incrementalFullRefreshCycles = incrementalFullRefreshCycles;
+    }
+
     /**
      * @return the outputToKml
      */
@@ -411,6 +865,142 @@ public enum Config {
         this.densifyMaxVertices = densifyMaxVertices;
     }
 
+    /**
+     * @return the convexBufferOn, true to buffer the supply node hulls by
+     * their Minkowski sum with a circle of densifyMaxVertices vertices, false
+     * to use the general OperatorBuffer, which densifies by its own defaults
+     */
+    public boolean isConvexBufferOn() {
+        return convexBufferOn;
+    }
+
+    /**
+     * @param convexBufferOn the convexBufferOn to set
+     */
+    public void setConvexBufferOn(boolean convexBufferOn) {
+        this.convexBufferOn = convexBufferOn;
+    }
+
+    /**
+     * @return the polygonCacheOn, true to reuse the polygon of a supply node
+     * whose customers are unchanged, see PolygonCache
+     */
+    public boolean isPolygonCacheOn() {
+        return polygonCacheOn;
+    }
+
+    /**
+     * @param polygonCacheOn the polygonCacheOn to set
+     */
+    public void setPolygonCacheOn(boolean polygonCacheOn) {
+        this.polygonCacheOn = polygonCacheOn;
+    }
+
+    /**
+     * @return the polygonCacheFile, if not empty the polygon cache is kept
+     * in this file between runs
+     */
+    public String getPolygonCacheFile() {
+        return polygonCacheFile;
+    }
+
+    /**
+     * @param polygonCacheFile the polygonCacheFile to set
+     */
+    public void setPolygonCacheFile(String polygonCacheFile) {
+        this.polygonCacheFile = polygonCacheFile;
+    }
+
+    /**
+     * @return the polygonCacheMaxEntries, beyond which the least recently
+     * used polygons are evicted
+     */
+    public int getPolygonCacheMaxEntries() {
+        return polygonCacheMaxEntries;
+    }
+
+    /**
+     * @param polygonCacheMaxEntries the polygonCacheMaxEntries to set
+     */
+    public void setPolygonCacheMaxEntries(int polygonCacheMaxEntries) {
+        this.polygonCacheMaxEntries = polygonCacheMaxEntries;
+    }
+
+    /**
+     * @return the polygonCacheMaxAgeHours, after which an unused polygon is
+     * dropped from the cache file
+     */
+    public int getPolygonCacheMaxAgeHours() {
+        return polygonCacheMaxAgeHours;
+    }
+
+    /**
+     * @param polygonCacheMaxAgeHours the polygonCacheMaxAgeHours to set
+     */
+    public void setPolygonCacheMaxAgeHours(int polygonCacheMaxAgeHours) {
+        this.polygonCacheMaxAgeHours = polygonCacheMaxAgeHours;
+    }
+
+    /**
+     * @return the polygonCacheQuantumDegrees, the resolution at which
+     * customer coordinates are compared by the polygon cache
+     */
+    public double getPolygonCacheQuantumDegrees() {
+        return polygonCacheQuantumDegrees;
+    }
+
+    /**
+     * @param polygonCacheQuantumDegrees the polygonCacheQuantumDegrees to set
+     */
+    public void setPolygonCacheQuantumDegrees(double polygonCacheQuantumDegrees) {
+        this.polygonCacheQuantumDegrees = polygonCacheQuantumDegrees;
+    }
+
+    /**
+     * @return the footprintAtlasFile, if not empty the FootprintAtlas of
+     * supply node footprints to use
+     */
+    public String getFootprintAtlasFile() {
+        return footprintAtlasFile;
+    }
+
+    /**
+     * @param footprintAtlasFile the footprintAtlasFile to set
+     */
+    public void setFootprintAtlasFile(String footprintAtlasFile) {
+        this.footprintAtlasFile = footprintAtlasFile;
+    }
+
+    /**
+     * @return the footprintAtlasSQL, the query of all served customers from
+     * which the footprint atlas is built, in the columns of the sourceDbSQL
+     */
+    public String getFootprintAtlasSQL() {
+        return footprintAtlasSQL;
+    }
+
+    /**
+     * @param footprintAtlasSQL the footprintAtlasSQL to set
+     */
+    public void setFootprintAtlasSQL(String footprintAtlasSQL) {
+        this.footprintAtlasSQL = footprintAtlasSQL;
+    }
+
+    /**
+     * @return the footprintAtlasThreshold, the fraction of a supply node's
+     * served customers out at which its atlas footprint is used as its polygon
+     */
+    public double getFootprintAtlasThreshold() {
+        return footprintAtlasThreshold;
+    }
+
+    /**
+     * @param footprintAtlasThreshold the footprintAtlasThreshold to set
+     */
+    public void setFootprintAtlasThreshold(double footprintAtlasThreshold) {
+        this.footprintAtlasThreshold = footprintAtlasThreshold;
+    }
+
     /**
      * @return the serviceEnvelope
      */
@@ -467,6 +1057,50 @@ public enum Config {
         this.serviceEnvelopeWkid = serviceEnvelopeWkid;
     }
 
+    /**
+     * @return the serviceTerritory, null if the serviceEnvelope is used
+     */
+    public Polygon getServiceTerritory() {
+        return serviceTerritory;
+    }
+
+    /**
+     * @param serviceTerritory the serviceTerritory to set, null to use the
+     * serviceEnvelope
+     */
+    public void setServiceTerritory(Polygon serviceTerritory) {
+        this.serviceTerritory = serviceTerritory;
+    }
+
+    /**
+     * @return the serviceTerritoryWkid
+     */
+    public int getServiceTerritoryWkid() {
+        return serviceTerritoryWkid;
+    }
+
+    /**
+     * @param serviceTerritoryWkid the serviceTerritoryWkid to set
+     */
+    public void setServiceTerritoryWkid(int serviceTerritoryWkid) {
+        this.serviceTerritoryWkid = serviceTerritoryWkid;
+    }
+
+    /**
+     * @return the territoryGridSize, the number of rows and of columns of the
+     * service territory's grid index
+     */
+    public int getTerritoryGridSize() {
+        return territoryGridSize;
+    }
+
+    /**
+     * @param territoryGridSize the territoryGridSize to set
+     */
+    public void setTerritoryGridSize(int territoryGridSize) {
+        this.territoryGridSize = territoryGridSize;
+    }
+
     /**
      * @return the fileOutputName
      */
@@ -648,4 +1282,96 @@ public enum Config {
     public void setMaxSupplyNodePointDist(double maxSupplyNodePointDist) {
         this.maxSupplyNodePointDist = maxSupplyNodePointDist;
     }
+
+    /**
+     * @return the ingestBatchSize
+     */
+    public int getIngestBatchSize() {
+        return ingestBatchSize;
+    }
+
+    /**
+     * @param ingestBatchSize the ingestBatchSize to set
+     */
+    public void setIngestBatchSize(int ingestBatchSize) {
+        this.ingestBatchSize = ingestBatchSize;
+    }
+
+    /**
+     * @return the ingestWorkerCount, zero for single threaded ingest
+     */
+    public int getIngestWorkerCount() {
+        return ingestWorkerCount;
+    }
+
+    /**
+     * @param ingestWorkerCount the ingestWorkerCount to set
+     */
+    public void setIngestWorkerCount(int ingestWorkerCount) {
+        this.ingestWorkerCount = ingestWorkerCount;
+    }
+
+    /**
+     * @return the ingestQueueCapacity
+     */
+    public int getIngestQueueCapacity() {
+        return ingestQueueCapacity;
+    }
+
+    /**
+     * @param ingestQueueCapacity the ingestQueueCapacity to set
+     */
+    public void setIngestQueueCapacity(int ingestQueueCapacity) {
+        this.ingestQueueCapacity = ingestQueueCapacity;
+    }
+
+    /**
+     * @return the rejectSampleSize, the number of rejected points of each
+     * reason, sampled at random, logged as examples per cycle, see
+     * PointRejects
+     */
+    public int getRejectSampleSize() {
+        return rejectSampleSize;
+    }
+
+    /**
+     * @param rejectSampleSize the rejectSampleSize to set
+     */
+    public void setRejectSampleSize(int rejectSampleSize) {
+        this.rejectSampleSize = rejectSampleSize;
+    }
+
+    /**
+     * @return the geometryParallelism, the number of threads computing the
+     * event polygons, one for the calling thread only (default: one per
+     * processor)
+     */
+    public int getGeometryParallelism() {
+        return geometryParallelism;
+    }
+
+    /**
+     * @param geometryParallelism the geometryParallelism to set
+     */
+    public void setGeometryParallelism(int geometryParallelism) {
+        this.geometryParallelism = geometryParallelism;
+    }
+
+    /**
+     * @return the streamingIngestOn, true to read the customers out ordered
+     * by EVENT_IDX and SUPPLY_IDX, and compute each supply node and event as
+     * soon as it has been read, keeping only the polygons of the events
+     * computed. It applies to full reads only, as the incremental mode keeps
+     * the points between cycles.
+     */
+    public boolean isStreamingIngestOn() {
+        return streamingIngestOn;
+    }
+
+    /**
+     * @param streamingIngestOn the streamingIngestOn to set
+     */
+    public void setStreamingIngestOn(boolean streamingIngestOn) {
+        this.streamingIngestOn = streamingIngestOn;
+    }
 }
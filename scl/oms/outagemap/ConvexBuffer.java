@@ -0,0 +1,121 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Polygon;
+
+/**
+ * This static class buffers convex polygons, such as the supply node hulls,
+ * by the Minkowski sum of the polygon and a circle. Each edge is offset by
+ * the buffer distance along its normal, and the corner between two offset
+ * edges is an arc through the vertices of a regular polygon inscribed in the
+ * circle. As the edge normals and the regular polygon's vertices are both
+ * sorted by angle, this is one merge of the two, with none of the topology
+ * work of a general buffer.
+ *
+ * @author jstewart
+ */
+public class ConvexBuffer {
+
+    private static final double TWO_PI = 2.0 * Math.PI;
+    private static final double MIN_ARC_STEP = 0.125; // of the regular polygon's step
+    private static final double MIN_VERTEX_SPACING = 1.0e-4; // of the buffer distance
+
+    // the unit circle's regular polygon, by angle, for the last vertex count used
+    private static volatile double[] circle = new double[0];
+
+    private ConvexBuffer() {
+        super();
+    }
+
+    /**
+     * Buffers a convex polygon.
+     *
+     * @param hull the x, y coordinates of the polygon's vertices, counter-
+     * clockwise and without collinear vertices
+     * @param hullCount the number of vertices, at least 3
+     * @param distance the buffer distance
+     * @param circleVertices the number of vertices of a full circle
+     * @return the buffered polygon, as a clockwise (outer) ring
+     */
+    public static Polygon buffer(double[] hull, int hullCount, double distance, int circleVertices) {
+        circleVertices = Math.max(3, circleVertices);
+        double[] unitCircle = ConvexBuffer.getCircle(circleVertices);
+        double step = TWO_PI / circleVertices;
+        double minArcStep = step * MIN_ARC_STEP;
+        double minSpacing = distance * MIN_VERTEX_SPACING;
+
+        // the outward normal angle of each edge, from vertex i to i + 1
+        double[] normals = new double[hullCount];
+        for (int i = 0; i < hullCount; i++) {
+            int next = (i + 1 < hullCount) ? i + 1 : 0;
+            double dx = hull[2 * next] - hull[2 * i];
+            double dy = hull[2 * next + 1] - hull[2 * i + 1];
+            double angle = Math.atan2(-dx, dy);
+            normals[i] = (angle < 0.0) ? angle + TWO_PI : angle;
+        }
+
+        // the arcs are added counter-clockwise, so the ring is built backward
+        double[] ring = new double[2 * (3 * hullCount + circleVertices)];
+        int ringCount = 0;
+        for (int i = 0; i < hullCount; i++) {
+            double x = hull[2 * i];
+            double y = hull[2 * i + 1];
+            double fromAngle = normals[(i > 0) ? i - 1 : hullCount - 1];
+            double toAngle = normals[i];
+            if (toAngle <= fromAngle) {
+                toAngle += TWO_PI;
+            }
+
+            ringCount = ConvexBuffer.addVertex(ring, ringCount, x + distance * Math.cos(fromAngle),
+                    y + distance * Math.sin(fromAngle), minSpacing);
+            for (int k = (int) Math.floor(fromAngle / step) + 1; k * step < toAngle - minArcStep; k++) {
+                if (k * step > fromAngle + minArcStep) {
+                    int vertex = k % circleVertices;
+                    ringCount = ConvexBuffer.addVertex(ring, ringCount, x + distance * unitCircle[2 * vertex],
+                            y + distance * unitCircle[2 * vertex + 1], minSpacing);
+                }
+            }
+            ringCount = ConvexBuffer.addVertex(ring, ringCount, x + distance * Math.cos(toAngle),
+                    y + distance * Math.sin(toAngle), minSpacing);
+        }
+        // the ring closes on its first vertex
+        if ((ringCount > 1) && ConvexBuffer.isNear(ring, ringCount - 1, ring[0], ring[1], minSpacing)) {
+            ringCount--;
+        }
+
+        Polygon polygon = new Polygon();
+        polygon.startPath(ring[2 * (ringCount - 1)], ring[2 * (ringCount - 1) + 1]);
+        for (int i = ringCount - 2; i >= 0; i--) {
+            polygon.lineTo(ring[2 * i], ring[2 * i + 1]);
+        }
+        return polygon;
+    }
+
+    // Adds a vertex to the ring, unless it is within the min spacing of the
+    // last vertex, as with the ends of a very short edge.
+    private static int addVertex(double[] ring, int ringCount, double x, double y, double minSpacing) {
+        if ((ringCount > 0) && ConvexBuffer.isNear(ring, ringCount - 1, x, y, minSpacing)) {
+            return ringCount;
+        }
+        ring[2 * ringCount] = x;
+        ring[2 * ringCount + 1] = y;
+        return ringCount + 1;
+    }
+
+    private static boolean isNear(double[] ring, int vertex, double x, double y, double minSpacing) {
+        return (Math.abs(ring[2 * vertex] - x) <= minSpacing) && (Math.abs(ring[2 * vertex + 1] - y) <= minSpacing);
+    }
+
+    // Provides the unit circle's regular polygon, as x, y of each vertex.
+    private static double[] getCircle(int circleVertices) {
+        double[] unitCircle = circle;
+        if (unitCircle.length != 2 * circleVertices) {
+            unitCircle = new double[2 * circleVertices];
+            for (int k = 0; k < circleVertices; k++) {
+                unitCircle[2 * k] = Math.cos(k * TWO_PI / circleVertices);
+                unitCircle[2 * k + 1] = Math.sin(k * TWO_PI / circleVertices);
+            }
+            circle = unitCircle;
+        }
+        return unitCircle;
+    }
+}
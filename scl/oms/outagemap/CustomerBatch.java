@@ -0,0 +1,272 @@
+package scl.oms.outagemap;
+
+/**
+ * This class holds a bounded batch of customer out records, as read from the
+ * outage data set, which is handed from the reader thread to the ingest
+ * workers. Records are held in columnar arrays, and the batch is reused once
+ * it has been processed.
+ *
+ * @author jstewart
+ */
+public class CustomerBatch {
+
+    /**
+     * The time value used when a timestamp is null.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private final double[] customerX;
+    private final double[] customerY;
+    private final long[] eventIdx;
+    private final long[] supplyIdx;
+    private final int[] custsByEvent;
+    private final String[] cause;
+    private final String[] etor;
+    private final long[] eventBegin;
+    private final boolean[] crewDispatched;
+    private final char[] changeType;
+    private final long[] changeTime;
+    private final double[] projectedX;
+    private final double[] projectedY;
+    private final boolean[] rejected;
+    private int size;
+
+    /**
+     * Initializes the batch.
+     *
+     * @param capacity the maximum number of records held by the batch
+     */
+    public CustomerBatch(int capacity) {
+        customerX = new double[capacity];
+        customerY = new double[capacity];
+        eventIdx = new long[capacity];
+        supplyIdx = new long[capacity];
+        custsByEvent = new int[capacity];
+        cause = new String[capacity];
+        etor = new String[capacity];
+        eventBegin = new long[capacity];
+        crewDispatched = new boolean[capacity];
+        changeType = new char[capacity];
+        changeTime = new long[capacity];
+        projectedX = new double[capacity];
+        projectedY = new double[capacity];
+        rejected = new boolean[capacity];
+        size = 0;
+    }
+
+    /**
+     * Adds a record to the end of the batch.
+     *
+     * @param customerX, the x coordinate of the customer affected
+     * @param customerY, the y coordinate of the customer affected
+     * @param eventIdx, OMS/NMS EVENT_IDX
+     * @param supplyIdx, OMS/NMS SUPPLY_IDX
+     * @param custsByEvent, Customer count impacted
+     * @param cause, the cause of the outage
+     * @param etor, Estimated Time of Restoral
+     * @param eventBegin, The start time of the outage in milliseconds, or NO_TIME
+     * @param crewDispatched, true if a crew has been dispatched
+     */
+    public void add(double customerX, double customerY, long eventIdx, long supplyIdx, int custsByEvent,
+            String cause, String etor, long eventBegin, boolean crewDispatched) {
+        this.customerX[size] = customerX;
+        this.customerY[size] = customerY;
+        this.eventIdx[size] = eventIdx;
+        this.supplyIdx[size] = supplyIdx;
+        this.custsByEvent[size] = custsByEvent;
+        this.cause[size] = cause;
+        this.etor[size] = etor;
+        this.eventBegin[size] = eventBegin;
+        this.crewDispatched[size] = crewDispatched;
+        size++;
+    }
+
+    /**
+     * Sets the change columns of the last record added, which are read only
+     * from the incremental (delta) data set.
+     *
+     * @param changeType, the kind of change, see DeltaIngest
+     * @param changeTime, the time of the change in milliseconds, or NO_TIME
+     */
+    public void setChange(char changeType, long changeTime) {
+        this.changeType[size - 1] = changeType;
+        this.changeTime[size - 1] = changeTime;
+    }
+
+    /**
+     * Marks a record to be removed by .removeRejected().
+     *
+     * @param row the record index
+     */
+    public void reject(int row) {
+        rejected[row] = true;
+    }
+
+    /**
+     * Removes the records marked by .reject(row), moving the records kept
+     * forward in their order.
+     *
+     * @return the number of records removed
+     */
+    public int removeRejected() {
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (rejected[row]) {
+                rejected[row] = false;
+                continue;
+            }
+            if (kept != row) {
+                customerX[kept] = customerX[row];
+                customerY[kept] = customerY[row];
+                eventIdx[kept] = eventIdx[row];
+                supplyIdx[kept] = supplyIdx[row];
+                custsByEvent[kept] = custsByEvent[row];
+                cause[kept] = cause[row];
+                etor[kept] = etor[row];
+                eventBegin[kept] = eventBegin[row];
+                crewDispatched[kept] = crewDispatched[row];
+                changeType[kept] = changeType[row];
+                changeTime[kept] = changeTime[row];
+            }
+            kept++;
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Re-projects the customer coordinates of all records at once, which
+     * are then provided by .getProjectedX(row) and .getProjectedY(row).
+     *
+     * @param transform the re-projection from the input coordinate system
+     */
+    public void project(ProjectTool.Transform transform) {
+        transform.project(customerX, customerY, projectedX, projectedY, size);
+    }
+
+    /**
+     * Empties the batch so that it may be reused.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return true if no more records may be added
+     */
+    public boolean isFull() {
+        return size == customerX.length;
+    }
+
+    /**
+     * @return the number of records in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row the record index
+     * @return the customer x coordinate, NaN if null
+     */
+    public double getCustomerX(int row) {
+        return customerX[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the customer y coordinate, NaN if null
+     */
+    public double getCustomerY(int row) {
+        return customerY[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the re-projected customer x coordinate, see .project(transform)
+     */
+    public double getProjectedX(int row) {
+        return projectedX[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the re-projected customer y coordinate, see .project(transform)
+     */
+    public double getProjectedY(int row) {
+        return projectedY[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the event id (EVENT_IDX)
+     */
+    public long getEventIdx(int row) {
+        return eventIdx[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the supply node id (SUPPLY_IDX)
+     */
+    public long getSupplyIdx(int row) {
+        return supplyIdx[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the custsByEvent
+     */
+    public int getCustsByEvent(int row) {
+        return custsByEvent[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the cause
+     */
+    public String getCause(int row) {
+        return cause[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the etor
+     */
+    public String getEtor(int row) {
+        return etor[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the event start time in milliseconds, or NO_TIME
+     */
+    public long getEventBegin(int row) {
+        return eventBegin[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return true if a crew has been dispatched
+     */
+    public boolean isCrewDispatched(int row) {
+        return crewDispatched[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the kind of change, see DeltaIngest
+     */
+    public char getChangeType(int row) {
+        return changeType[row];
+    }
+
+    /**
+     * @param row the record index
+     * @return the time of the change in milliseconds, or NO_TIME
+     */
+    public long getChangeTime(int row) {
+        return changeTime[row];
+    }
+}
@@ -0,0 +1,147 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Decodes customer out records from a result set into a batch, which makes
+ * the result set a customer source. The column
+ * indexes are resolved once from the result set metadata, so that each row is
+ * read positionally and as primitives rather than by column name.
+ *
+ * The event columns are the same on every record of an event, so on a full
+ * read they are only decoded on the first record of each event, and are
+ * repeated on the records of the event that follow. A changed data set is
+ * always decoded in full, as its records of one event may differ.
+ *
+ * Note: the coordinate columns are read with getDouble, so when the source
+ * SQL provides them as CHAR the conversion is left to the JDBC driver.
+ *
+ * @author jstewart
+ */
+public class CustomerRowDecoder implements CustomerSource {
+
+    private final ResultSet customersOut;
+    private final int pointXColumn;
+    private final int pointYColumn;
+    private final int eventIdxColumn;
+    private final int supplyIdxColumn;
+    private final int custsByEventColumn;
+    private final int causeColumn;
+    private final int etorColumn;
+    private final int eventBeginColumn;
+    private final int firstCrewTimeColumn;
+    private final int changeTypeColumn; // zero if not in the data set
+    private final int changeTimeColumn; // zero if not in the data set
+    private long lastEventIdx;
+    private boolean eventDecoded; // true once the event columns of lastEventIdx are decoded
+    private int custsByEvent;
+    private String cause;
+    private String etor;
+    private long eventBeginMillis;
+    private boolean crewDispatched;
+
+    /**
+     * Initializes the decoder, resolving the column indexes of the result set.
+     *
+     * @param customersOut the outage data set
+     * @throws SQLException if a required column is not found
+     */
+    public CustomerRowDecoder(ResultSet customersOut) throws SQLException {
+        this.customersOut = customersOut;
+        ResultSetMetaData metaData = customersOut.getMetaData();
+        pointXColumn = CustomerRowDecoder.findColumn(metaData, "POINT_X");
+        pointYColumn = CustomerRowDecoder.findColumn(metaData, "POINT_Y");
+        eventIdxColumn = CustomerRowDecoder.findColumn(metaData, "EVENT_IDX");
+        supplyIdxColumn = CustomerRowDecoder.findColumn(metaData, "SUPPLY_IDX");
+        custsByEventColumn = CustomerRowDecoder.findColumn(metaData, "CUSTSBYEVENT");
+        causeColumn = CustomerRowDecoder.findColumn(metaData, "EVENT_CAUSE");
+        etorColumn = CustomerRowDecoder.findColumn(metaData, "EVENT_ETOR_TEXT");
+        eventBeginColumn = CustomerRowDecoder.findColumn(metaData, "EVENT_BEGIN");
+        firstCrewTimeColumn = CustomerRowDecoder.findColumn(metaData, "FIRST_CREW_TIME");
+        changeTypeColumn = CustomerRowDecoder.findOptionalColumn(metaData, "CHANGE_TYPE");
+        changeTimeColumn = CustomerRowDecoder.findOptionalColumn(metaData, "CHANGE_TIME");
+    }
+
+    /**
+     * Clears the batch and fills it with the next records of the result set.
+     *
+     * @param batch the batch to fill
+     * @return the number of records decoded, zero at the end of the data set
+     * @throws SQLException
+     */
+    @Override
+    public int read(CustomerBatch batch) throws SQLException {
+        batch.clear();
+        while (!batch.isFull() && customersOut.next()) {
+            double customerX = customersOut.getDouble(pointXColumn);
+            if (customersOut.wasNull()) {
+                customerX = Double.NaN;
+            }
+            double customerY = customersOut.getDouble(pointYColumn);
+            if (customersOut.wasNull()) {
+                customerY = Double.NaN;
+            }
+            long eventIdx = customersOut.getLong(eventIdxColumn);
+            long supplyIdx = customersOut.getLong(supplyIdxColumn);
+            if (!eventDecoded || (eventIdx != lastEventIdx) || (changeTypeColumn > 0)) {
+                custsByEvent = customersOut.getInt(custsByEventColumn);
+                cause = customersOut.getString(causeColumn);
+                etor = customersOut.getString(etorColumn);
+
+                Timestamp eventBegin = customersOut.getTimestamp(eventBeginColumn);
+                eventBeginMillis = (eventBegin != null) ? eventBegin.getTime() : CustomerBatch.NO_TIME;
+                crewDispatched = customersOut.getTimestamp(firstCrewTimeColumn) != null;
+                lastEventIdx = eventIdx;
+                eventDecoded = true;
+            }
+
+            batch.add(customerX, customerY, eventIdx, supplyIdx, custsByEvent,
+                    cause, etor, eventBeginMillis, crewDispatched);
+
+            if (changeTypeColumn > 0) {
+                String changeType = customersOut.getString(changeTypeColumn);
+                Timestamp changeTime = (changeTimeColumn > 0) ? customersOut.getTimestamp(changeTimeColumn) : null;
+                batch.setChange((changeType != null && changeType.length() > 0) ? changeType.charAt(0) : ' ',
+                        (changeTime != null) ? changeTime.getTime() : CustomerBatch.NO_TIME);
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * Closes the result set.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            customersOut.close();
+        } catch (SQLException ex) {
+            throw new IOException("Unable to close customers out. " + ex.getMessage(), ex);
+        }
+    }
+
+    // Finds the 1-based index of a column by its label, ignoring case.
+    private static int findColumn(ResultSetMetaData metaData, String columnLabel) throws SQLException {
+        int column = CustomerRowDecoder.findOptionalColumn(metaData, columnLabel);
+        if (column == 0) {
+            throw new SQLException("Column " + columnLabel + " not found in customers out data set.");
+        }
+        return column;
+    }
+
+    // Finds the 1-based index of a column by its label, or zero if not found.
+    private static int findOptionalColumn(ResultSetMetaData metaData, String columnLabel) throws SQLException {
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            if (columnLabel.equalsIgnoreCase(metaData.getColumnLabel(column))) {
+                return column;
+            }
+        }
+        return 0;
+    }
+}
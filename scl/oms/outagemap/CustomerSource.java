@@ -0,0 +1,30 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * A source of customer out records, such as the OMS/NMS database or a
+ * recording of it, which is read a batch at a time.
+ *
+ * @author jstewart
+ */
+public interface CustomerSource {
+
+    /**
+     * Clears the batch and fills it with the next records of the source.
+     *
+     * @param batch the batch to fill
+     * @return the number of records read, zero at the end of the source
+     * @throws IOException
+     * @throws SQLException
+     */
+    int read(CustomerBatch batch) throws IOException, SQLException;
+
+    /**
+     * Releases the source.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
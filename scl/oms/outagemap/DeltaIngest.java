@@ -0,0 +1,190 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class applies the customers out changed since the last watermark to a
+ * resident event map, so that only the affected events and supply nodes are
+ * recomputed. The changed data set has the columns of the customers out data
+ * set, plus CHANGE_TYPE and CHANGE_TIME, where CHANGE_TYPE is one of:
+ *
+ * I - a customer is out, the point is added
+ * U - the event's attributes changed
+ * R - a customer is restored, the point is removed
+ * E - the event is restored, the event is removed
+ *
+ * The event attributes are updated from every I, U and R record.
+ *
+ * @author jstewart
+ */
+public class DeltaIngest {
+
+    /**
+     * The CHANGE_TYPE of a customer out.
+     */
+    public static final char CUSTOMER_OUT = 'I';
+
+    /**
+     * The CHANGE_TYPE of an event attribute update.
+     */
+    public static final char EVENT_UPDATED = 'U';
+
+    /**
+     * The CHANGE_TYPE of a restored customer.
+     */
+    public static final char CUSTOMER_RESTORED = 'R';
+
+    /**
+     * The CHANGE_TYPE of a restored event.
+     */
+    public static final char EVENT_RESTORED = 'E';
+
+    private final int batchSize;
+
+    private int recordsRead;
+    private int pointsAdded;
+    private int pointsRemoved;
+    private int eventsUpdated;
+    private int eventsRemoved;
+    private int recordsOutsideServiceTerritory;
+    private int recordsUnknown;
+
+    /**
+     * Initializes the delta ingest.
+     *
+     * @param batchSize the number of records decoded at a time
+     */
+    public DeltaIngest(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Applies the changed customers out to the event map.
+     *
+     * @param customersChanged the changed data set
+     * @param events the resident event map
+     * @param serviceTerritory points outside of the service territory are not mapped
+     * @param watermark the time of the last change already applied
+     * @return the new watermark, the time of the last change applied
+     * @throws IOException
+     * @throws SQLException
+     */
+    public Timestamp apply(ResultSet customersChanged, EventMap events, ServiceTerritory serviceTerritory,
+            Timestamp watermark) throws IOException, SQLException {
+        Logger log = Log.getLogger();
+        CustomerRowDecoder decoder = new CustomerRowDecoder(customersChanged);
+        CustomerBatch batch = new CustomerBatch(batchSize);
+        long lastChangeTime = watermark.getTime();
+        recordsRead = 0;
+        pointsAdded = 0;
+        pointsRemoved = 0;
+        eventsUpdated = 0;
+        eventsRemoved = 0;
+        recordsOutsideServiceTerritory = 0;
+        recordsUnknown = 0;
+
+        while (decoder.read(batch) > 0) {
+            for (int row = 0; row < batch.size(); row++) {
+                recordsRead++;
+                lastChangeTime = Math.max(lastChangeTime, batch.getChangeTime(row));
+                this.applyRecord(batch, row, events, serviceTerritory, log);
+            }
+        }
+
+        log.log(Level.INFO, "Delta metric: {0} changed record(s); {1} point(s) added, {2} point(s) removed, "
+                + "{3} event(s) updated, {4} event(s) removed; {5} outside service territory, {6} unknown. (environment={7})",
+                new Object[]{recordsRead, pointsAdded, pointsRemoved, eventsUpdated, eventsRemoved,
+                    recordsOutsideServiceTerritory, recordsUnknown, Config.INSTANCE.getEnvironmentLabel()});
+        return new Timestamp(lastChangeTime);
+    }
+
+    // Applies one changed record to the event map.
+    private void applyRecord(CustomerBatch batch, int row, EventMap events, ServiceTerritory serviceTerritory,
+            Logger log) {
+        long eventIdx = batch.getEventIdx(row);
+        char changeType = batch.getChangeType(row);
+
+        if (changeType == EVENT_RESTORED) {
+            if (events.removeEvent(eventIdx)) {
+                eventsRemoved++;
+            }
+            return;
+        }
+
+        if (changeType == EVENT_UPDATED) {
+            if (events.updateEvent(eventIdx, batch.getCause(row), batch.getEtor(row),
+                    batch.getCustsByEvent(row), batch.getEventBegin(row), batch.isCrewDispatched(row))) {
+                eventsUpdated++;
+            }
+            return;
+        }
+        if ((changeType != CUSTOMER_OUT) && (changeType != CUSTOMER_RESTORED)) {
+            recordsUnknown++;
+            log.log(Level.FINE, "Unknown CHANGE_TYPE {0} for event {1}. (environment={2})",
+                    new Object[]{changeType, eventIdx, Config.INSTANCE.getEnvironmentLabel()});
+            return;
+        }
+
+        double customerX = batch.getCustomerX(row);
+        double customerY = batch.getCustomerY(row);
+        if (Double.isNaN(customerX) || Double.isNaN(customerY)) {
+            PointRejects.reject(PointRejects.Reason.NULL_COORDINATES, batch.getSupplyIdx(row), customerX, customerY);
+            return;
+        }
+        if (!serviceTerritory.contains(customerX, customerY)) {
+            recordsOutsideServiceTerritory++;
+            PointRejects.reject(PointRejects.Reason.OUTSIDE_TERRITORY, batch.getSupplyIdx(row), customerX, customerY);
+            return;
+        }
+        // note: Point takes X, Y ~ lon, lat
+        Point point = ProjectTool.project(new Point(customerX, customerY),
+                Config.INSTANCE.getInputProjWKID(), Config.INSTANCE.getGeometryProjWKID());
+        if (Double.isNaN(point.getX()) || Double.isInfinite(point.getX())
+                || Double.isNaN(point.getY()) || Double.isInfinite(point.getY())) {
+            PointRejects.reject(PointRejects.Reason.PROJECTION_FAILED, batch.getSupplyIdx(row), customerX, customerY);
+            return;
+        }
+
+        if (changeType == CUSTOMER_OUT) {
+            if (events.addPoint(eventIdx, batch.getSupplyIdx(row), point.getX(), point.getY(), batch.getCause(row),
+                    batch.getEtor(row), batch.getCustsByEvent(row), batch.getEventBegin(row),
+                    batch.isCrewDispatched(row))) {
+                pointsAdded++;
+            } else {
+                PointRejects.reject(PointRejects.Reason.DISTANCE_EXCEEDED, batch.getSupplyIdx(row),
+                        point.getX(), point.getY());
+            }
+        } else if (events.removePoint(eventIdx, batch.getSupplyIdx(row), point)) {
+            pointsRemoved++;
+        }
+        events.updateEvent(eventIdx, batch.getCause(row), batch.getEtor(row),
+                batch.getCustsByEvent(row), batch.getEventBegin(row), batch.isCrewDispatched(row));
+    }
+
+    /**
+     * @return the count of records read from the changed data set
+     */
+    public int getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return the count of points added to the event map
+     */
+    public int getPointsAdded() {
+        return pointsAdded;
+    }
+
+    /**
+     * @return the count of records outside of the service territory
+     */
+    public int getRecordsOutsideServiceTerritory() {
+        return recordsOutsideServiceTerritory;
+    }
+}
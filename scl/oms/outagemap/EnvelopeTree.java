@@ -0,0 +1,145 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Envelope2D;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class is a static R-tree of envelopes, packed by Sort-Tile-Recursive
+ * (STR): the envelopes are sorted into vertical slices by their center x, and
+ * each slice by center y, so that each run of NODE_CAPACITY envelopes is a
+ * compact leaf. Each level above groups runs of the nodes below. The tree is
+ * built once and then queried for the envelopes intersecting an envelope.
+ *
+ * @author jstewart
+ */
+public class EnvelopeTree {
+
+    private static final int NODE_CAPACITY = 8;
+
+    private final int[] items; // envelope indexes, in leaf order
+    private final double[] itemBounds; // xmin, ymin, xmax, ymax of each item, in leaf order
+    private final double[][] levelBounds; // of each node, by level from the leaves up
+    private final int[] stack;
+
+    /**
+     * Builds the tree.
+     *
+     * @param envelopes the envelopes, which are identified by their index
+     */
+    public EnvelopeTree(final Envelope2D[] envelopes) {
+        int count = envelopes.length;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+
+        // sort into vertical slices by center x, then each slice by center y
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(envelopes[a].xmin + envelopes[a].xmax, envelopes[b].xmin + envelopes[b].xmax);
+            }
+        });
+        int leafCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = NODE_CAPACITY * (int) Math.ceil(Math.sqrt(leafCount));
+        Comparator<Integer> byCenterY = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(envelopes[a].ymin + envelopes[a].ymax, envelopes[b].ymin + envelopes[b].ymax);
+            }
+        };
+        for (int sliceStart = 0; sliceStart < count; sliceStart += sliceSize) {
+            Arrays.sort(order, sliceStart, Math.min(count, sliceStart + sliceSize), byCenterY);
+        }
+
+        items = new int[count];
+        itemBounds = new double[4 * count];
+        for (int i = 0; i < count; i++) {
+            Envelope2D envelope = envelopes[order[i]];
+            items[i] = order[i];
+            itemBounds[4 * i] = envelope.xmin;
+            itemBounds[4 * i + 1] = envelope.ymin;
+            itemBounds[4 * i + 2] = envelope.xmax;
+            itemBounds[4 * i + 3] = envelope.ymax;
+        }
+
+        // the levels, each node bounding a run of the entries below it
+        int levelCount = 1;
+        for (int nodes = leafCount; nodes > 1; nodes = (nodes + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+            levelCount++;
+        }
+        levelBounds = new double[levelCount][];
+        double[] childBounds = itemBounds;
+        int childCount = count;
+        for (int level = 0; level < levelCount; level++) {
+            int nodeCount = (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            double[] bounds = new double[4 * nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                bounds[4 * node] = Double.POSITIVE_INFINITY;
+                bounds[4 * node + 1] = Double.POSITIVE_INFINITY;
+                bounds[4 * node + 2] = Double.NEGATIVE_INFINITY;
+                bounds[4 * node + 3] = Double.NEGATIVE_INFINITY;
+                int lastChild = Math.min(childCount, (node + 1) * NODE_CAPACITY);
+                for (int child = node * NODE_CAPACITY; child < lastChild; child++) {
+                    bounds[4 * node] = Math.min(bounds[4 * node], childBounds[4 * child]);
+                    bounds[4 * node + 1] = Math.min(bounds[4 * node + 1], childBounds[4 * child + 1]);
+                    bounds[4 * node + 2] = Math.max(bounds[4 * node + 2], childBounds[4 * child + 2]);
+                    bounds[4 * node + 3] = Math.max(bounds[4 * node + 3], childBounds[4 * child + 3]);
+                }
+            }
+            levelBounds[level] = bounds;
+            childBounds = bounds;
+            childCount = nodeCount;
+        }
+        stack = new int[2 * (levelCount * NODE_CAPACITY + 1)];
+    }
+
+    /**
+     * Finds the envelopes that intersect, or touch, an envelope. The tree is
+     * not safe for concurrent queries.
+     *
+     * @param envelope the envelope to query
+     * @param results receives the indexes of the envelopes found, and must
+     * have room for all of the envelopes
+     * @return the number of envelopes found
+     */
+    public int query(Envelope2D envelope, int[] results) {
+        int resultCount = 0;
+        if (items.length == 0) {
+            return 0;
+        }
+
+        // depth first, by level and node, from the root
+        int stackCount = 0;
+        stack[stackCount++] = levelBounds.length - 1;
+        stack[stackCount++] = 0;
+        while (stackCount > 0) {
+            int node = stack[--stackCount];
+            int level = stack[--stackCount];
+            if (!EnvelopeTree.intersects(levelBounds[level], node, envelope)) {
+                continue;
+            }
+            if (level == 0) {
+                int lastItem = Math.min(items.length, (node + 1) * NODE_CAPACITY);
+                for (int item = node * NODE_CAPACITY; item < lastItem; item++) {
+                    if (EnvelopeTree.intersects(itemBounds, item, envelope)) {
+                        results[resultCount++] = items[item];
+                    }
+                }
+            } else {
+                int lastChild = Math.min(levelBounds[level - 1].length / 4, (node + 1) * NODE_CAPACITY);
+                for (int child = node * NODE_CAPACITY; child < lastChild; child++) {
+                    stack[stackCount++] = level - 1;
+                    stack[stackCount++] = child;
+                }
+            }
+        }
+        return resultCount;
+    }
+
+    private static boolean intersects(double[] bounds, int entry, Envelope2D envelope) {
+        return (bounds[4 * entry] <= envelope.xmax) && (bounds[4 * entry + 2] >= envelope.xmin)
+                && (bounds[4 * entry + 1] <= envelope.ymax) && (bounds[4 * entry + 3] >= envelope.ymin);
+    }
+}
@@ -0,0 +1,86 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+
+/**
+ * The computed geometry of one event, as produced by the GeometryStage and
+ * read by the writers. It holds its own copies of the polygons and label
+ * point, as those of the supply node map are changed in place when it is
+ * recomputed, so it is not changed once created; the writers must not change
+ * the polygons or label point it holds.
+ *
+ * @author jstewart
+ */
+public final class EventGeometry {
+
+    private final long eventIdx;
+    private final Polygon[] polygons;
+    private final Point labelPoint;
+    private final int supplyNodeCount;
+    private final long computeNanos;
+
+    /**
+     * Initializes the event geometry.
+     *
+     * @param eventIdx OMS/NMS EVENT_IDX
+     * @param polygons the event's polygons, in the output coordinate system,
+     * which are copied
+     * @param labelPoint the event's label point, in the output coordinate
+     * system, which is copied
+     * @param supplyNodeCount the number of supply nodes of the event
+     * @param computeNanos the time to compute the event, in nanoseconds
+     */
+    public EventGeometry(long eventIdx, Polygon[] polygons, Point labelPoint, int supplyNodeCount, long computeNanos) {
+        this.eventIdx = eventIdx;
+        this.polygons = new Polygon[polygons.length];
+        for (int i = 0; i < polygons.length; i++) {
+            this.polygons[i] = (polygons[i] != null) ? (Polygon) polygons[i].copy() : null;
+        }
+        this.labelPoint = (labelPoint != null) ? (Point) labelPoint.copy() : null;
+        this.supplyNodeCount = supplyNodeCount;
+        this.computeNanos = computeNanos;
+    }
+
+    /**
+     * @return the OMS/NMS EVENT_IDX
+     */
+    public long getEventIdx() {
+        return eventIdx;
+    }
+
+    /**
+     * @return a copy of the array of the event's polygons
+     */
+    public Polygon[] getPolygons() {
+        return polygons.clone();
+    }
+
+    /**
+     * @return the number of the event's polygons
+     */
+    public int getPolygonCount() {
+        return polygons.length;
+    }
+
+    /**
+     * @return the event's label point
+     */
+    public Point getLabelPoint() {
+        return labelPoint;
+    }
+
+    /**
+     * @return the number of supply nodes of the event
+     */
+    public int getSupplyNodeCount() {
+        return supplyNodeCount;
+    }
+
+    /**
+     * @return the time to compute the event, in nanoseconds
+     */
+    public long getComputeNanos() {
+        return computeNanos;
+    }
+}
@@ -1,94 +1,255 @@
 package scl.oms.outagemap;
 
-import com.esri.core.geometry.Geometry;
-import com.esri.core.geometry.GeometryEngine;
 import com.esri.core.geometry.Point;
 import com.esri.core.geometry.Polygon;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This class represents an OMS/NMS event
- * 
+ * This class represents the OMS/NMS events. Each event is one record, with
+ * its attributes and supply nodes, held in an array by a LongIndex of
+ * EVENT_IDX, so that an event costs one object and one index entry rather
+ * than an entry in each of six maps.
+ *
+ * The event attributes are only taken from an event's first record, so the
+ * start time is formatted once per event, and the cause and ETOR texts are
+ * shared through a dictionary, as a storm has many events but few texts.
+ *
+ * The map is safe for many ingest threads at once, without a lock over the
+ * whole map. The events are spread over stripes by EVENT_IDX, and each
+ * stripe's index and records are guarded by the stripe. A point is added
+ * under its event's own lock, its supply node map, so that the threads only
+ * wait on one another when they add to the same event. An event removed
+ * while a point is being added to it is marked as removed under the same
+ * lock, and the point is then added to a new record of the event.
+ *
  * @author stewarjd
- * @param <K> Integer, the EVENT_IDX from OMS/NMS
- * @param <V> SupplyNodeMap contains an event's supply nodes (i.e. transformers)
  */
-public class EventMap<K, V> extends HashMap {
+public class EventMap {
 
-    private HashMap<Long, String> causeMap;
-    private HashMap<Long, String> etorMap;
-    private HashMap<Long, Integer> custsByEventMap;
-    private HashMap<Long, String> eventBeginMap;
-    private HashMap<Long, String> crewDispatchedMap;
+    private static final int STRIPE_BITS = 6; // 64 stripes
+    private static final int INITIAL_STRIPE_EVENTS = 4;
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final DateTimeFormatter EVENT_BEGIN_FORMAT
+            = DateTimeFormatter.ofPattern("h:mm a, MM/dd").withZone(ZoneId.systemDefault()); // thread-safe
+
+    private final Stripe[] stripes;
+    private final ConcurrentHashMap<String, String> texts; // each distinct cause and ETOR text
 
     /*
-     * Initializes the event map, whcih contains additional hash maps for the
-     * outage caus, ETOR, customer count, start time, crew dispatch time.
+     * Initializes the event map.
      */
     public EventMap() {
-        super();
-        causeMap = new HashMap();
-        etorMap = new HashMap();
-        custsByEventMap = new HashMap();
-        eventBeginMap = new HashMap();
-        crewDispatchedMap = new HashMap();
+        stripes = new Stripe[1 << STRIPE_BITS];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        texts = new ConcurrentHashMap();
     }
 
     /**
-     * Adds a new record to the outage event.
-     * 
+     * Adds a new record to the outage event. Points may be added by many
+     * threads at once.
+     *
      * @param eventIdx, OMS/NMS EVENT_IDX
      * @param supplyIdx, OMS/NMS SUPPLY_IDX
-     * @param point, the x/y coordinate of the customer affected
+     * @param x, the x coordinate of the customer affected
+     * @param y, the y coordinate of the customer affected
      * @param cause, the cause of the outage
      * @param etor, Estimated Time of Restoral
      * @param custsByEvent, Customer count impacted
-     * @param eventBeginText, The start time of the outage
-     * @param crewDispatched, The time a crew was dispatched
-     */
-    public void addPoint(Long eventIdx, Long supplyIdx, Point point, String cause,
-            String etor, int custsByEvent, String eventBeginText, String crewDispatched) throws Exception {
-        if (this.containsKey(eventIdx)) {
-            SupplyNodeMap supplyNodes = (SupplyNodeMap) this.get(eventIdx);
-            supplyNodes.addPoint(supplyIdx, point);
-        } else {
-            causeMap.put(eventIdx, cause);
-            etorMap.put(eventIdx, etor);
-            custsByEventMap.put(eventIdx, custsByEvent);
-            eventBeginMap.put(eventIdx, eventBeginText);
-            crewDispatchedMap.put(eventIdx, crewDispatched);
-            SupplyNodeMap<Long, PointQueue> supplyNodes = new SupplyNodeMap();
-            supplyNodes.addPoint(supplyIdx, point);
-            super.put(eventIdx, supplyNodes);
+     * @param eventBegin, The start time of the outage, in milliseconds, or
+     * CustomerBatch.NO_TIME if unknown
+     * @param crewDispatched, True if a crew was dispatched
+     * @return false if the point is too far from its supply node's other
+     * points, and was not added
+     */
+    public boolean addPoint(long eventIdx, long supplyIdx, double x, double y, String cause,
+            String etor, int custsByEvent, long eventBegin, boolean crewDispatched) {
+        Stripe stripe = this.getStripe(eventIdx);
+        while (true) {
+            EventRecord eventRecord;
+            synchronized (stripe) {
+                eventRecord = stripe.find(eventIdx);
+                if (eventRecord == null) {
+                    eventRecord = new EventRecord(eventIdx);
+                    this.updateRecord(eventRecord, cause, etor, custsByEvent, eventBegin, crewDispatched);
+                    stripe.add(eventRecord);
+                }
+            }
+            synchronized (eventRecord.supplyNodes) {
+                if (!eventRecord.removed) {
+                    return eventRecord.supplyNodes.addPoint(supplyIdx, x, y);
+                }
+            }
+            // the event was removed once found, so it is added again
+        }
+    }
+
+    /**
+     * Updates the attributes of an event already in the map.
+     *
+     * @param eventIdx, OMS/NMS EVENT_IDX
+     * @param cause, the cause of the outage
+     * @param etor, Estimated Time of Restoral
+     * @param custsByEvent, Customer count impacted
+     * @param eventBegin, The start time of the outage, in milliseconds, or
+     * CustomerBatch.NO_TIME if unknown
+     * @param crewDispatched, True if a crew was dispatched
+     * @return false if the event is not in the map
+     */
+    public boolean updateEvent(long eventIdx, String cause, String etor, int custsByEvent,
+            long eventBegin, boolean crewDispatched) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            if (eventRecord == null) {
+                return false;
+            }
+            this.updateRecord(eventRecord, cause, etor, custsByEvent, eventBegin, crewDispatched);
+            return true;
+        }
+    }
+
+    /**
+     * Removes a restored customer from the outage event. The supply node is
+     * removed when it has no customers left, and likewise the event.
+     *
+     * @param eventIdx, OMS/NMS EVENT_IDX
+     * @param supplyIdx, OMS/NMS SUPPLY_IDX
+     * @param point, the x/y coordinate of the customer restored
+     * @return true if the point was found and removed
+     */
+    public boolean removePoint(long eventIdx, long supplyIdx, Point point) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            if (eventRecord == null) {
+                return false;
+            }
+            synchronized (eventRecord.supplyNodes) {
+                if (!eventRecord.supplyNodes.removePoint(supplyIdx, point)) {
+                    return false;
+                }
+                if (eventRecord.supplyNodes.isEmpty()) {
+                    eventRecord.removed = true;
+                    stripe.remove(eventIdx);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Removes a restored event, along with its supply nodes and attributes.
+     *
+     * @param eventIdx, OMS/NMS EVENT_IDX
+     * @return true if the event was in the map
+     */
+    public boolean removeEvent(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.remove(eventIdx);
+            if (eventRecord == null) {
+                return false;
+            }
+            synchronized (eventRecord.supplyNodes) {
+                eventRecord.removed = true;
+            }
+            return true;
         }
     }
 
     /**
      * Computes the event's polygons from the underlying supply nodes.
-     * 
+     *
      * @param eventIdx the event id (EVENT_IDX)
      * @return an array of polygons for the event
      */
-    public Polygon[] getEventPolygons(Long eventIdx) {
-        SupplyNodeMap supplyNodeMap = (SupplyNodeMap) this.get(eventIdx);
+    public Polygon[] getEventPolygons(long eventIdx) {
+        SupplyNodeMap supplyNodeMap = this.getSupplyNodeMap(eventIdx);
         return supplyNodeMap.getPolygons();
     }
 
+    /**
+     * Provides an event's supply nodes, so that an event may be computed
+     * while points are still added to other events.
+     *
+     * @param eventIdx the event id (EVENT_IDX)
+     * @return the event's supply nodes, or null if the event is not mapped
+     */
+    public SupplyNodeMap getSupplyNodeMap(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            return (eventRecord != null) ? eventRecord.supplyNodes : null;
+        }
+    }
+
     /**
      * Provides the average center of supply nodes for the outage.
-     * 
+     *
      * @param eventIdx the event id (EVENT_IDX)
      * @return location for an event's label
      */
-    public Point getLabelPoint(Long eventIdx) {
-        SupplyNodeMap supplyNodeMap = (SupplyNodeMap) this.get(eventIdx);
+    public Point getLabelPoint(long eventIdx) {
+        SupplyNodeMap supplyNodeMap = this.getSupplyNodeMap(eventIdx);
         return supplyNodeMap.getLabelPoint();
     }
 
+    /**
+     * Provides the EVENT_IDX of every event, in the order of the map, which is
+     * by stripe and then the order added, but for removed events, whose places
+     * are taken by the last events of their stripe. The events are taken a
+     * stripe at a time, so events added meanwhile may or may not be included.
+     *
+     * @return a new array of the events' EVENT_IDX
+     */
+    public long[] getEventIdxs() {
+        long[] eventIdxs = new long[this.size()];
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (count + stripe.eventCount > eventIdxs.length) {
+                    eventIdxs = Arrays.copyOf(eventIdxs, count + stripe.eventCount);
+                }
+                for (int i = 0; i < stripe.eventCount; i++) {
+                    eventIdxs[count++] = stripe.eventRecords[i].eventIdx;
+                }
+            }
+        }
+        return (count == eventIdxs.length) ? eventIdxs : Arrays.copyOf(eventIdxs, count);
+    }
+
+    /**
+     * @param eventIdx the event id (EVENT_IDX)
+     * @return true if the event is in the map
+     */
+    public boolean containsEvent(long eventIdx) {
+        return this.getSupplyNodeMap(eventIdx) != null;
+    }
+
+    /**
+     * Provides the number of events.
+     *
+     * @return event count
+     */
+    public int size() {
+        int eventCount = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                eventCount += stripe.eventCount;
+            }
+        }
+        return eventCount;
+    }
+
     /**
      * Provides the number of events.
-     * 
+     *
      * @return event count
      */
     public int getEventCount() {
@@ -97,23 +258,24 @@ public class EventMap<K, V> extends HashMap {
 
     /**
      * Provides the total count of supply nodes processed.
-     * 
+     *
      * @return the total count of supply nodes processed
      */
     public int getSupplyNodeCount() {
-        Iterator<Long> eventKeyItr = this.keySet().iterator();
-        Long eventKey;
         int supplyNodeCount = 0;
-        while (eventKeyItr.hasNext()) {
-            eventKey = eventKeyItr.next();
-            supplyNodeCount += ((SupplyNodeMap) this.get(eventKey)).size();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < stripe.eventCount; i++) {
+                    supplyNodeCount += stripe.eventRecords[i].supplyNodes.size();
+                }
+            }
         }
-        return super.size();
+        return supplyNodeCount;
     }
 
     /**
      * Provides basic metrics for events.
-     * 
+     *
      * @return metrics about the events.
      */
     public String getMetrics() {
@@ -124,41 +286,160 @@ public class EventMap<K, V> extends HashMap {
      * @param eventIdx the event id (EVENT_IDX)
      * @return the cause
      */
-    public String getCause(Long eventIdx) {
-        return causeMap.get(eventIdx);
+    public String getCause(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            return (eventRecord != null) ? eventRecord.cause : null;
+        }
     }
 
     /**
      * @param eventIdx the event id (EVENT_IDX)
      * @return the etor
      */
-    public String getEtor(Long eventIdx) {
-        return etorMap.get(eventIdx);
+    public String getEtor(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            return (eventRecord != null) ? eventRecord.etor : null;
+        }
     }
 
     /**
      * @param eventIdx the event id (EVENT_IDX)
-     * @return the custsByEvent
+     * @return the custsByEvent, or 0 if the event is not mapped
      */
-    public Integer getCustsByEvent(Long eventIdx) {
-        return custsByEventMap.get(eventIdx);
+    public int getCustsByEvent(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            return (eventRecord != null) ? eventRecord.custsByEvent : 0;
+        }
     }
 
     /**
      * @param eventIdx the event id (EVENT_IDX)
      * @return the event start time
      */
-    public String getEventBegin(Long eventIdx) {
-        return eventBeginMap.get(eventIdx);
+    public String getEventBegin(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            return (eventRecord != null) ? eventRecord.eventBegin : null;
+        }
     }
 
     /**
      * Provides the appropriate value if a crew has been dispatched to the event.
-     * 
+     *
      * @param eventIdx the event id (EVENT_IDX)
      * @return the crewDispatched
      */
-    public String getCrewDispatched(Long eventIdx) {
-        return crewDispatchedMap.get(eventIdx);
+    public String getCrewDispatched(long eventIdx) {
+        Stripe stripe = this.getStripe(eventIdx);
+        synchronized (stripe) {
+            EventRecord eventRecord = stripe.find(eventIdx);
+            return (eventRecord != null) ? eventRecord.crewDispatched : null;
+        }
+    }
+
+    // Sets an event's attributes, formatting the start time and sharing the texts.
+    private void updateRecord(EventRecord eventRecord, String cause, String etor, int custsByEvent,
+            long eventBegin, boolean crewDispatched) {
+        String eventBeginText;
+        if (eventBegin != CustomerBatch.NO_TIME) {
+            eventBeginText = EVENT_BEGIN_FORMAT.format(Instant.ofEpochMilli(eventBegin));
+        } else {
+            eventBeginText = "unknown";
+        }
+        eventRecord.update(this.shareText(cause), this.shareText(etor), custsByEvent, eventBeginText,
+                crewDispatched ? "Dispatched" : null);
+    }
+
+    // Provides the dictionary's copy of a text, adding it if it is new.
+    private String shareText(String text) {
+        if (text == null) {
+            return null;
+        }
+        String sharedText = texts.putIfAbsent(text, text);
+        return (sharedText != null) ? sharedText : text;
+    }
+
+    // The stripe of an event, by the high bits of its mixed EVENT_IDX, which
+    // are apart from the bits the stripe's LongIndex probes by.
+    private Stripe getStripe(long eventIdx) {
+        return stripes[(int) ((eventIdx * 0x9E3779B97F4A7C15L) >>> (64 - STRIPE_BITS))];
+    }
+
+    // The events of one stripe, which are guarded by the stripe.
+    private static class Stripe {
+
+        private final LongIndex eventIndex; // EVENT_IDX to position
+        private EventRecord[] eventRecords;
+        private int eventCount;
+
+        private Stripe() {
+            eventIndex = new LongIndex(INITIAL_STRIPE_EVENTS, LOAD_FACTOR);
+            eventRecords = new EventRecord[INITIAL_STRIPE_EVENTS];
+        }
+
+        // Finds an event's record, or null if the event is not mapped.
+        private EventRecord find(long eventIdx) {
+            int position = eventIndex.get(eventIdx);
+            return (position >= 0) ? eventRecords[position] : null;
+        }
+
+        private void add(EventRecord eventRecord) {
+            if (eventCount == eventRecords.length) {
+                eventRecords = Arrays.copyOf(eventRecords, 2 * eventCount);
+            }
+            eventRecords[eventCount] = eventRecord;
+            eventIndex.put(eventRecord.eventIdx, eventCount);
+            eventCount++;
+        }
+
+        // Removes an event's record, the last record taking its place.
+        private EventRecord remove(long eventIdx) {
+            int position = eventIndex.remove(eventIdx);
+            if (position < 0) {
+                return null;
+            }
+            EventRecord eventRecord = eventRecords[position];
+            eventCount--;
+            if (position != eventCount) {
+                eventRecords[position] = eventRecords[eventCount];
+                eventIndex.put(eventRecords[position].eventIdx, position);
+            }
+            eventRecords[eventCount] = null;
+            return eventRecord;
+        }
+    }
+
+    // One event: its attributes and supply nodes. The attributes are guarded
+    // by the event's stripe, and the removed flag by its supply nodes.
+    private static class EventRecord {
+
+        private final long eventIdx;
+        private final SupplyNodeMap supplyNodes;
+        private String cause;
+        private String etor;
+        private int custsByEvent;
+        private String eventBegin;
+        private String crewDispatched;
+        private boolean removed;
+
+        private EventRecord(long eventIdx) {
+            this.eventIdx = eventIdx;
+            this.supplyNodes = new SupplyNodeMap();
+        }
+
+        private void update(String cause, String etor, int custsByEvent, String eventBegin, String crewDispatched) {
+            this.cause = cause;
+            this.etor = etor;
+            this.custsByEvent = custsByEvent;
+            this.eventBegin = eventBegin;
+            this.crewDispatched = crewDispatched;
+        }
     }
 }
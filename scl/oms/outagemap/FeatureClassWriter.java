@@ -13,6 +13,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import oracle.jdbc.OracleConnection;
@@ -32,6 +33,8 @@ public class FeatureClassWriter {
     public static final int WGS84_SRID = 4326; //WGS84
     public static final int WSP83_SRID = 2926; //HARN/WO.WA-NF
 
+    private static final int CONNECTION_VALID_TIMEOUT = 5; // seconds
+
     private static OracleConnection targetGeoDBConn;
 
     private static OracleConnection getDatabaseConnection() throws IOException, SQLException {
@@ -53,8 +56,12 @@ public class FeatureClassWriter {
         }
     }
 
-    public static void writeFeatureClass(EventMap eventMap) throws IOException, SQLException, Exception {
-        targetGeoDBConn = FeatureClassWriter.getDatabaseConnection();
+    public static void writeFeatureClass(EventMap eventMap, Map<Long, EventGeometry> eventGeometries)
+            throws IOException, SQLException, Exception {
+        if ((targetGeoDBConn == null) || !targetGeoDBConn.isValid(CONNECTION_VALID_TIMEOUT)) {
+            FeatureClassWriter.closeDatabaseConnection();
+            targetGeoDBConn = FeatureClassWriter.getDatabaseConnection();
+        }
         targetGeoDBConn.setDefaultExecuteBatch(Config.INSTANCE.getGeoDbBatchSize());
         Logger log = Log.getLogger();
 
@@ -64,21 +71,24 @@ public class FeatureClassWriter {
         int pointsMapped = 0;
 
         // initiate iterator loop on events
-        Iterator<Long> eventKeyItr = eventMap.keySet().iterator();
+        Iterator<Long> eventKeyItr = eventGeometries.keySet().iterator();
         Long eventKey;
 
         String insertSql = "INSERT INTO " + Config.INSTANCE.getGeoDbFeatureClassTable()
                 + "(SHAPE, EVENT_IDX) VALUES (?, ?)";
         PreparedStatement insertStatement = targetGeoDBConn.prepareStatement(insertSql);
+        long lastEventWriteNanos = 0; // recorded once the pending batch is sent
 
         // iterate over events
         while (eventKeyItr.hasNext()) {
           
             eventKey = eventKeyItr.next();
+            long eventWriteNanos = 0;
+            long eventStartTime = System.nanoTime();
 
             // iterate over polygons for a single event
             Polygon[] eventPolygons = null;
-            eventPolygons = eventMap.getEventPolygons(eventKey);
+            eventPolygons = eventGeometries.get(eventKey).getPolygons();
 
             for (int eventPolygonIndex = 0; eventPolygonIndex < eventPolygons.length; eventPolygonIndex++) {               
                 Polygon polygon = eventPolygons[eventPolygonIndex];
@@ -97,21 +107,36 @@ public class FeatureClassWriter {
                 JGeometry sdo_geometry = JGeometry.createLinearPolygon(coords, 2, FeatureClassWriter.WGS84_SRID);
                 STRUCT structuredObject = JGeometry.store(targetGeoDBConn, sdo_geometry);
                 log.log(Level.ALL, "STRUCT.dump() ==> {0}", structuredObject.dump());
+                long writeStartTime = System.nanoTime();
                 ((OraclePreparedStatement) insertStatement).setObject(1, structuredObject);
                 ((OraclePreparedStatement) insertStatement).setLong(2, eventKey);
                 insertStatement.execute();
+                eventWriteNanos += System.nanoTime() - writeStartTime;
                 polygonsMapped++;
             }
             eventsMapped++;
+            StageMetrics.record(StageMetrics.Stage.FEATURE_CLASS_WRITE, System.nanoTime() - eventStartTime - eventWriteNanos);
+            if (eventKeyItr.hasNext()) {
+                StageMetrics.record(StageMetrics.Stage.DATABASE_WRITE, eventWriteNanos);
+            } else {
+                lastEventWriteNanos = eventWriteNanos;
+            }
         }
         
-        insertStatement.close();
+        long closeStartTime = System.nanoTime();
+        insertStatement.close(); // sends any pending batch
+        if (eventsMapped > 0) {
+            // the last event's sample includes the final batch, which the close executes
+            StageMetrics.record(StageMetrics.Stage.DATABASE_WRITE, lastEventWriteNanos + System.nanoTime() - closeStartTime);
+        }
 
         long geoDbUpdateTime = System.currentTimeMillis() - geoDbUpdateStart;
         log.log(Level.INFO, "Geodatabase update metric: {0} event(s) mapped into {1} polygons with {2} polygon points in {3} milliseconds. (environment={4})",
                 new Object[]{eventsMapped, polygonsMapped, pointsMapped, geoDbUpdateTime, Config.INSTANCE.getEnvironmentLabel()});
-        
-        FeatureClassWriter.closeDatabaseConnection();
+
+        if (!Config.INSTANCE.isServiceMode()) {
+            FeatureClassWriter.closeDatabaseConnection(); // else kept for the next cycle
+        }
     }
 
     /**
@@ -122,11 +147,15 @@ public class FeatureClassWriter {
      * @throws IOException
      */
     public static void closeDatabaseConnection() throws IOException {
+        if (targetGeoDBConn == null) {
+            return;
+        }
         try {
             targetGeoDBConn.close();
         } catch (SQLException ex) {
             Logger log = Log.getLogger();
             log.getLogger(OutageDataFactory.class.getName()).log(Level.SEVERE, null, ex);
         }
+        targetGeoDBConn = null;
     }
 }
@@ -0,0 +1,323 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The footprint atlas holds the polygon of each supply node for all of its
+ * served customers, which is what its polygon becomes when most of those
+ * customers are out. A supply node with at least the footprintAtlasThreshold
+ * of its served customers out takes its atlas footprint as its polygon,
+ * rather than computing the hull and buffer, so a large storm is mostly
+ * lookups.
+ *
+ * The atlas is built offline, by the FootprintAtlasBuilder, with the geometry
+ * settings of the map, and is memory-mapped when opened. The index is sorted
+ * by SUPPLY_IDX and searched in place, so opening the atlas reads nothing but
+ * the header:
+ *
+ * header: magic (int), version (int), settings fingerprint (long), entry
+ * count (int)
+ * index entry: SUPPLY_IDX (long), served customer count (int), vertex count
+ * (int), vertex offset (long)
+ * vertices: x (double), y (double) of each vertex of each footprint, in the
+ * geometry coordinate system
+ *
+ * @author jstewart
+ */
+public class FootprintAtlas {
+
+    static final int MAGIC = 0x4F4D4641; // "OMFA"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    static final int INDEX_ENTRY_BYTES = 24;
+
+    private static volatile MappedByteBuffer atlasBuffer;
+    private static volatile int entryCount;
+    private static final AtomicInteger footprintsUsed = new AtomicInteger();
+
+    private FootprintAtlas() {
+        super();
+    }
+
+    /**
+     * Opens and maps an atlas file, replacing any atlas open.
+     *
+     * @param atlasFile the path of the atlas file
+     * @throws IOException if the file is not an atlas, or was built with other
+     * geometry settings
+     */
+    public static void open(String atlasFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel atlasChannel = FileChannel.open(Paths.get(atlasFile), StandardOpenOption.READ)) {
+            if (atlasChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Footprint atlas " + atlasFile + " is too large to map.");
+            }
+            // the mapping remains valid once the channel is closed
+            buffer = atlasChannel.map(FileChannel.MapMode.READ_ONLY, 0, atlasChannel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if ((buffer.limit() < HEADER_BYTES) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+            throw new IOException(atlasFile + " is not a footprint atlas.");
+        }
+        if (buffer.getLong(8) != PolygonCache.getSettingsFingerprint()) {
+            throw new IOException("Footprint atlas " + atlasFile + " was built with other geometry settings.");
+        }
+        int count = buffer.getInt(16);
+        if (buffer.limit() < HEADER_BYTES + (long) count * INDEX_ENTRY_BYTES) {
+            throw new IOException(atlasFile + " is not a complete footprint atlas.");
+        }
+        entryCount = count;
+        atlasBuffer = buffer;
+    }
+
+    /**
+     * Closes the atlas, after which no footprints are used.
+     */
+    public static void close() {
+        atlasBuffer = null;
+        entryCount = 0;
+    }
+
+    /**
+     * @return true if an atlas is open
+     */
+    public static boolean isOpen() {
+        return atlasBuffer != null;
+    }
+
+    /**
+     * @return the number of supply node footprints in the atlas
+     */
+    public static int size() {
+        return (atlasBuffer != null) ? entryCount : 0;
+    }
+
+    /**
+     * Provides a supply node's footprint, if enough of its served customers
+     * are out, counting the footprints used.
+     *
+     * @param supplyIdx OMS/NMS SUPPLY_IDX
+     * @param pointCount the number of the supply node's customers out
+     * @return a new copy of the footprint, or null if there is none or fewer
+     * than the footprintAtlasThreshold of its served customers are out
+     */
+    public static Polygon getFootprint(long supplyIdx, int pointCount) {
+        MappedByteBuffer buffer = atlasBuffer;
+        if (buffer == null) {
+            return null;
+        }
+        int entry = FootprintAtlas.find(buffer, entryCount, supplyIdx);
+        if (entry < 0) {
+            return null;
+        }
+        int position = HEADER_BYTES + entry * INDEX_ENTRY_BYTES;
+        if (!FootprintAtlas.isOverThreshold(pointCount, buffer.getInt(position + 8))) {
+            return null;
+        }
+        footprintsUsed.incrementAndGet();
+
+        // a copy, as the polygons are changed when they are merged and cleaned
+        int vertexCount = buffer.getInt(position + 12);
+        int vertexPosition = (int) buffer.getLong(position + 16);
+        Polygon polygon = new Polygon();
+        polygon.startPath(buffer.getDouble(vertexPosition), buffer.getDouble(vertexPosition + 8));
+        for (int i = 1; i < vertexCount; i++) {
+            polygon.lineTo(buffer.getDouble(vertexPosition + 16 * i), buffer.getDouble(vertexPosition + 16 * i + 8));
+        }
+        return polygon;
+    }
+
+    /**
+     * Tests whether a change in a supply node's customers out moves it across
+     * the footprintAtlasThreshold, so that its polygon changes between its
+     * computed polygon and its footprint.
+     *
+     * @param supplyIdx OMS/NMS SUPPLY_IDX
+     * @param pointCount the number of the supply node's customers out before
+     * @param newPointCount the number of the supply node's customers out after
+     * @return true if the supply node's footprint is used after the change
+     * but not before, or before but not after
+     */
+    public static boolean crossesThreshold(long supplyIdx, int pointCount, int newPointCount) {
+        MappedByteBuffer buffer = atlasBuffer;
+        if (buffer == null) {
+            return false;
+        }
+        int entry = FootprintAtlas.find(buffer, entryCount, supplyIdx);
+        if (entry < 0) {
+            return false;
+        }
+        int servedCount = buffer.getInt(HEADER_BYTES + entry * INDEX_ENTRY_BYTES + 8);
+        return FootprintAtlas.isOverThreshold(pointCount, servedCount)
+                != FootprintAtlas.isOverThreshold(newPointCount, servedCount);
+    }
+
+    // True if enough of a supply node's served customers are out to use its footprint.
+    private static boolean isOverThreshold(int pointCount, int servedCount) {
+        return pointCount >= Config.INSTANCE.getFootprintAtlasThreshold() * servedCount;
+    }
+
+    /**
+     * Builds an atlas file from all of the served customers, grouped by
+     * SUPPLY_IDX. Each footprint is computed as the supply node's polygon
+     * would be, with the geometry settings of the map. The file is written
+     * aside and then moved into place, so an open atlas is never half written.
+     *
+     * @param servedCustomers the served customers, as customer records
+     * @param serviceTerritory customers outside of the service territory are
+     * left out of the footprints
+     * @param atlasFile the path of the atlas file
+     * @return the number of supply node footprints written
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static int build(CustomerSource servedCustomers, ServiceTerritory serviceTerritory, String atlasFile)
+            throws IOException, SQLException {
+        Logger log = Log.getLogger();
+        ProjectTool.Transform transform = ProjectTool.getTransform(Config.INSTANCE.getInputProjWKID(),
+                Config.INSTANCE.getGeometryProjWKID());
+
+        // the points queues are not keyed by SUPPLY_IDX, so they are never cached
+        Map<Long, PointQueue> supplyNodes = new HashMap();
+        CustomerBatch batch = new CustomerBatch(Config.INSTANCE.getIngestBatchSize());
+        int customersRead = 0;
+        int customersDropped = 0;
+        while (servedCustomers.read(batch) > 0) {
+            customersRead += batch.size();
+            for (int row = 0; row < batch.size(); row++) {
+                if (!serviceTerritory.contains(batch.getCustomerX(row), batch.getCustomerY(row))) {
+                    batch.reject(row);
+                }
+            }
+            customersDropped += batch.removeRejected();
+            batch.project(transform);
+            for (int row = 0; row < batch.size(); row++) {
+                PointQueue supplyNode = supplyNodes.get(batch.getSupplyIdx(row));
+                if (supplyNode == null) {
+                    supplyNode = new PointQueue();
+                    supplyNodes.put(batch.getSupplyIdx(row), supplyNode);
+                }
+                if (supplyNode.addPoint(batch.getProjectedX(row), batch.getProjectedY(row)) == PointQueue.Added.REJECTED) {
+                    customersDropped++;
+                }
+            }
+        }
+
+        long[] supplyIdxs = new long[supplyNodes.size()];
+        int supplyNodeCount = 0;
+        for (Long supplyIdx : supplyNodes.keySet()) {
+            supplyIdxs[supplyNodeCount++] = supplyIdx;
+        }
+        Arrays.sort(supplyIdxs);
+
+        // the footprints of one ring, in SUPPLY_IDX order
+        List<double[]> rings = new ArrayList();
+        long[] ringSupplyIdxs = new long[supplyNodeCount];
+        int[] servedCounts = new int[supplyNodeCount];
+        long vertexBytes = 0;
+        Point2D vertex = new Point2D();
+        for (long supplyIdx : supplyIdxs) {
+            PointQueue supplyNode = supplyNodes.get(supplyIdx);
+            Polygon footprint = supplyNode.getPolygon();
+            if ((footprint == null) || (footprint.getPathCount() != 1)) {
+                continue;
+            }
+            double[] ring = new double[2 * footprint.getPointCount()];
+            for (int i = 0; i < footprint.getPointCount(); i++) {
+                footprint.getXY(i, vertex);
+                ring[2 * i] = vertex.x;
+                ring[2 * i + 1] = vertex.y;
+            }
+            ringSupplyIdxs[rings.size()] = supplyIdx;
+            servedCounts[rings.size()] = supplyNode.getPointCount();
+            rings.add(ring);
+            vertexBytes += 8L * ring.length;
+        }
+
+        long fileBytes = HEADER_BYTES + (long) rings.size() * INDEX_ENTRY_BYTES + vertexBytes;
+        if (fileBytes > Integer.MAX_VALUE) {
+            throw new IOException("Footprint atlas " + atlasFile + " would be too large to map.");
+        }
+        ByteBuffer atlas = ByteBuffer.allocate((int) fileBytes).order(ByteOrder.LITTLE_ENDIAN);
+        atlas.putInt(MAGIC).putInt(VERSION).putLong(PolygonCache.getSettingsFingerprint()).putInt(rings.size());
+        long vertexPosition = HEADER_BYTES + (long) rings.size() * INDEX_ENTRY_BYTES;
+        for (int entry = 0; entry < rings.size(); entry++) {
+            double[] ring = rings.get(entry);
+            atlas.putLong(ringSupplyIdxs[entry]).putInt(servedCounts[entry]).putInt(ring.length / 2).putLong(vertexPosition);
+            vertexPosition += 8L * ring.length;
+        }
+        for (double[] ring : rings) {
+            atlas.asDoubleBuffer().put(ring);
+            atlas.position(atlas.position() + 8 * ring.length);
+        }
+        atlas.flip();
+
+        Path atlasPath = Paths.get(atlasFile);
+        Path writePath = Paths.get(atlasFile + ".tmp");
+        try (FileChannel atlasChannel = FileChannel.open(writePath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (atlas.hasRemaining()) {
+                atlasChannel.write(atlas);
+            }
+        }
+        Files.move(writePath, atlasPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.log(Level.INFO, "Footprint atlas of {0} supply node(s) built from {1} served customer(s), "
+                + "{2} dropped, in {3} (environment={4})",
+                new Object[]{rings.size(), customersRead, customersDropped, atlasFile,
+                    Config.INSTANCE.getEnvironmentLabel()});
+        return rings.size();
+    }
+
+    /**
+     * Clears the count of footprints used, such as at the start of a cycle.
+     */
+    public static void resetMetrics() {
+        footprintsUsed.set(0);
+    }
+
+    /**
+     * @return the number of supply node polygons taken from the atlas
+     */
+    public static int getFootprintsUsed() {
+        return footprintsUsed.get();
+    }
+
+    // Binary searches the index for a SUPPLY_IDX, returning its entry or -1.
+    private static int find(ByteBuffer buffer, int count, long supplyIdx) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleSupplyIdx = buffer.getLong(HEADER_BYTES + middle * INDEX_ENTRY_BYTES);
+            if (middleSupplyIdx < supplyIdx) {
+                low = middle + 1;
+            } else if (middleSupplyIdx > supplyIdx) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,43 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the footprint atlas offline, from all of the served customers (see
+ * OutageDataFactory.getServedCustomers()), with the same configuration as the
+ * map, so that the footprints match the polygons the map would compute. The
+ * atlas is rebuilt as the served customers change, such as nightly.
+ *
+ * @author jstewart
+ */
+public class FootprintAtlasBuilder {
+
+    /**
+     * @param args the path of the atlas file (default: the footprintAtlasFile)
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        OutageMapCreator.startUp();
+        Logger log = Log.getLogger();
+
+        String atlasFile = (args.length > 0) ? args[0] : Config.INSTANCE.getFootprintAtlasFile();
+        if (atlasFile.isEmpty()) {
+            log.log(Level.SEVERE, "No footprint atlas file is configured. (environment={0})",
+                    Config.INSTANCE.getEnvironmentLabel());
+            Log.closeLogger();
+            System.exit(1);
+        }
+
+        CustomerSource servedCustomers = OutageDataFactory.getServedCustomers();
+        try {
+            FootprintAtlas.build(servedCustomers, OutageDataFactory.getServiceTerritory(), atlasFile);
+        } finally {
+            servedCustomers.close();
+            OutageDataFactory.closeDatabaseConnection();
+        }
+        Log.closeLogger();
+        System.exit(0);
+    }
+}
@@ -5,6 +5,7 @@ import com.esri.core.geometry.Polygon;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,16 +20,19 @@ public class GeoJsonCreator {
      * Creates a file with GeoJSON data.
      *
      * @param eventMap
+     * @param eventGeometries the computed geometry of each event, see
+     * GeometryStage
      * @throws IOException is thrown if application can not write to the JSON
      * file.
      */
-    public static void createGeoJson(EventMap eventMap, String applicationPath) throws IOException {
+    public static void createGeoJson(EventMap eventMap, Map<Long, EventGeometry> eventGeometries, String applicationPath)
+            throws IOException {
 
-        Iterator<Long> eventKeyItr = eventMap.keySet().iterator();
+        Iterator<Long> eventKeyItr = eventGeometries.keySet().iterator();
         Long eventKey;
         while (eventKeyItr.hasNext()) {
             eventKey = eventKeyItr.next();
-            Polygon[] eventPolygons = eventMap.getEventPolygons(eventKey);
+            Polygon[] eventPolygons = eventGeometries.get(eventKey).getPolygons();
 
             Logger log = Log.getLogger();
             
@@ -0,0 +1,356 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes the polygons and label point of every event, after the ingest and
+ * before the output, so that the writers only read the results. Events are
+ * independent of one another, so they are computed in parallel on a
+ * work-stealing pool. The events are submitted largest first, by customer
+ * count, so that the few largest events start at once rather than last,
+ * while the threads that finish early take the smaller events.
+ *
+ * With the streaming ingest, the stage is instead handed each supply node and
+ * then each event as soon as it has been read, in the order read, and drops
+ * their points once computed. The number of tasks waiting or running is
+ * bounded, so that the reader waits for the workers rather than holding the
+ * points of more events than they can keep up with.
+ *
+ * @author jstewart
+ */
+public class GeometryStage {
+
+    private static final int TASKS_PER_THREAD = 4; // streamed tasks in flight, per thread
+
+    private final int parallelism;
+    private ForkJoinPool pool; // kept between cycles
+    private long slowestEventIdx;
+    private long slowestEventNanos;
+
+    // the streamed events, in the order submitted, and their results
+    private List<Long> streamedEventIdxs;
+    private List<Future<EventGeometry>> streamedResults;
+    private Semaphore tasksInFlight;
+    private AtomicReference<Throwable> streamFailure;
+
+    /**
+     * Initializes the stage.
+     *
+     * @param parallelism the number of threads, one or less to compute the
+     * events on the calling thread
+     */
+    public GeometryStage(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Computes every event's geometry.
+     *
+     * @param events the events, which are not changed while computed
+     * @return the geometry of each event by EVENT_IDX, in the order of the
+     * event map, which can not be modified
+     * @throws IOException if the geometry of an event fails
+     */
+    public Map<Long, EventGeometry> compute(final EventMap events) throws IOException {
+        slowestEventIdx = 0;
+        slowestEventNanos = 0;
+
+        // largest first
+        List<Long> eventIdxs = new ArrayList();
+        final Map<Long, Integer> pointCounts = new LinkedHashMap();
+        for (long eventIdx : events.getEventIdxs()) {
+            eventIdxs.add(eventIdx);
+            pointCounts.put(eventIdx, events.getSupplyNodeMap(eventIdx).getPointCount());
+        }
+        List<Long> largestFirst = new ArrayList(eventIdxs);
+        Collections.sort(largestFirst, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return pointCounts.get(b).compareTo(pointCounts.get(a));
+            }
+        });
+
+        Map<Long, EventGeometry> computed = new LinkedHashMap();
+        if (parallelism == 1) {
+            for (Long eventIdx : largestFirst) {
+                computed.put(eventIdx, GeometryStage.computeEvent(events, eventIdx));
+            }
+        } else {
+            if (pool == null) {
+                pool = new ForkJoinPool(parallelism);
+            }
+            // external submissions are taken in order, and idle threads steal
+            List<Future<EventGeometry>> results = new ArrayList();
+            for (final Long eventIdx : largestFirst) {
+                results.add(pool.submit(new Callable<EventGeometry>() {
+                    @Override
+                    public EventGeometry call() {
+                        return GeometryStage.computeEvent(events, eventIdx);
+                    }
+                }));
+            }
+            try {
+                for (int i = 0; i < results.size(); i++) {
+                    computed.put(largestFirst.get(i), results.get(i).get());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while computing the event geometry.", ex);
+            } catch (ExecutionException ex) {
+                throw new IOException("Geometry worker failed. " + ex.getCause(), ex.getCause());
+            }
+        }
+
+        // in the order of the event map, as the writers expect
+        Map<Long, EventGeometry> eventGeometries = new LinkedHashMap();
+        for (Long eventIdx : eventIdxs) {
+            EventGeometry eventGeometry = computed.get(eventIdx);
+            eventGeometries.put(eventIdx, eventGeometry);
+            if (eventGeometry.getComputeNanos() > slowestEventNanos) {
+                slowestEventIdx = eventIdx;
+                slowestEventNanos = eventGeometry.getComputeNanos();
+            }
+        }
+        return Collections.unmodifiableMap(eventGeometries);
+    }
+
+    /**
+     * Starts a streamed compute, to which the supply nodes and events are
+     * submitted as they are read, and which is ended by finish.
+     */
+    public void start() {
+        slowestEventIdx = 0;
+        slowestEventNanos = 0;
+        streamedEventIdxs = new ArrayList();
+        streamedResults = new ArrayList();
+        tasksInFlight = new Semaphore(TASKS_PER_THREAD * parallelism);
+        streamFailure = new AtomicReference();
+    }
+
+    /**
+     * Computes a supply node, all of whose points have been added, and drops
+     * its points, while the ingest continues.
+     *
+     * @param events the events
+     * @param eventIdx the supply node's EVENT_IDX
+     * @param supplyIdx the supply node's SUPPLY_IDX
+     * @throws IOException if the reader was interrupted while waiting for the
+     * workers
+     */
+    public void submitSupplyNode(final EventMap events, final long eventIdx, final long supplyIdx) throws IOException {
+        if (parallelism == 1) {
+            GeometryStage.releaseSupplyNode(events, eventIdx, supplyIdx);
+            return;
+        }
+        this.acquireTask();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    GeometryStage.releaseSupplyNode(events, eventIdx, supplyIdx);
+                } catch (RuntimeException ex) {
+                    streamFailure.compareAndSet(null, ex);
+                } finally {
+                    tasksInFlight.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes an event, all of whose points have been added, and drops its
+     * points, keeping its polygons, while the ingest continues.
+     *
+     * @param events the events
+     * @param eventIdx the event's EVENT_IDX
+     * @throws IOException if the reader was interrupted while waiting for the
+     * workers
+     */
+    public void submitEvent(final EventMap events, final long eventIdx) throws IOException {
+        streamedEventIdxs.add(eventIdx);
+        if (parallelism == 1) {
+            EventGeometry eventGeometry = GeometryStage.releaseEvent(events, eventIdx);
+            streamedResults.add(new CompletedResult(eventGeometry));
+            return;
+        }
+        this.acquireTask();
+        streamedResults.add(pool.submit(new Callable<EventGeometry>() {
+            @Override
+            public EventGeometry call() {
+                try {
+                    return GeometryStage.releaseEvent(events, eventIdx);
+                } finally {
+                    tasksInFlight.release();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits for the streamed supply nodes and events to be computed.
+     *
+     * @return the geometry of each event by EVENT_IDX, in the order
+     * submitted, which can not be modified
+     * @throws IOException if the geometry of a supply node or event failed
+     */
+    public Map<Long, EventGeometry> finish() throws IOException {
+        Map<Long, EventGeometry> eventGeometries = new LinkedHashMap();
+        try {
+            for (int i = 0; i < streamedResults.size(); i++) {
+                EventGeometry eventGeometry = streamedResults.get(i).get();
+                eventGeometries.put(streamedEventIdxs.get(i), eventGeometry);
+                if (eventGeometry.getComputeNanos() > slowestEventNanos) {
+                    slowestEventIdx = eventGeometry.getEventIdx();
+                    slowestEventNanos = eventGeometry.getComputeNanos();
+                }
+            }
+            // every task has ended once all of the permits are back
+            tasksInFlight.acquire(TASKS_PER_THREAD * parallelism);
+            tasksInFlight.release(TASKS_PER_THREAD * parallelism);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing the event geometry.", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Geometry worker failed. " + ex.getCause(), ex.getCause());
+        } finally {
+            streamedEventIdxs = null;
+            streamedResults = null;
+        }
+        if (streamFailure.get() != null) {
+            throw new IOException("Geometry worker failed. " + streamFailure.get(), streamFailure.get());
+        }
+        return Collections.unmodifiableMap(eventGeometries);
+    }
+
+    /**
+     * Abandons a streamed compute, such as when the ingest fails, cancelling
+     * the tasks not yet started.
+     */
+    public void cancel() {
+        if (streamedResults != null) {
+            for (Future<EventGeometry> result : streamedResults) {
+                result.cancel(false);
+            }
+        }
+        streamedEventIdxs = null;
+        streamedResults = null;
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the EVENT_IDX of the slowest event of the last compute
+     */
+    public long getSlowestEventIdx() {
+        return slowestEventIdx;
+    }
+
+    /**
+     * @return the time to compute the slowest event of the last compute, in
+     * nanoseconds
+     */
+    public long getSlowestEventNanos() {
+        return slowestEventNanos;
+    }
+
+    /**
+     * Stops the pool threads, which are otherwise kept between cycles.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    // Takes a permit for a streamed task, waiting while too many are in flight.
+    private void acquireTask() throws IOException {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        try {
+            tasksInFlight.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the geometry workers.", ex);
+        }
+    }
+
+    // Computes one supply node's polygon and drops its points.
+    private static void releaseSupplyNode(EventMap events, long eventIdx, long supplyIdx) {
+        SupplyNodeMap supplyNodeMap = events.getSupplyNodeMap(eventIdx);
+        if (supplyNodeMap != null) {
+            supplyNodeMap.releaseSupplyNode(supplyIdx);
+        }
+    }
+
+    // Computes one event and drops its points, keeping its polygons.
+    private static EventGeometry releaseEvent(EventMap events, long eventIdx) {
+        EventGeometry eventGeometry = GeometryStage.computeEvent(events, eventIdx);
+        events.getSupplyNodeMap(eventIdx).releasePoints();
+        return eventGeometry;
+    }
+
+    // Computes one event's polygons, merges and label point.
+    private static EventGeometry computeEvent(EventMap events, Long eventIdx) {
+        long startTime = System.nanoTime();
+        SupplyNodeMap supplyNodeMap = events.getSupplyNodeMap(eventIdx);
+        EventGeometry eventGeometry = new EventGeometry(eventIdx, supplyNodeMap.getPolygons(),
+                supplyNodeMap.getLabelPoint(), supplyNodeMap.size(), System.nanoTime() - startTime);
+        StageMetrics.record(StageMetrics.Stage.GEOMETRY, eventGeometry.getComputeNanos());
+        return eventGeometry;
+    }
+
+    // The result of an event computed on the calling thread.
+    private static class CompletedResult implements Future<EventGeometry> {
+
+        private final EventGeometry eventGeometry;
+
+        private CompletedResult(EventGeometry eventGeometry) {
+            this.eventGeometry = eventGeometry;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public EventGeometry get() {
+            return eventGeometry;
+        }
+
+        @Override
+        public EventGeometry get(long timeout, TimeUnit unit) {
+            return eventGeometry;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class reads the customers out data set into an event map. One reader
+ * thread drains the customer source into bounded batches, and a pool of workers
+ * filters, projects and adds the batched points to the event map.
+ *
+ * If the worker count is zero, then each batch is processed on the reader
+ * thread, which is the original single threaded behavior. Batches are
+ * recycled, so the reader allocates no arrays once the pipeline is primed,
+ * and the worker threads are kept between ingests.
+ *
+ * @author jstewart
+ */
+public class IngestPipeline {
+
+    private static final CustomerBatch END_OF_DATA = new CustomerBatch(0);
+
+    private final int batchSize;
+    private final int workerCount;
+    private final int queueCapacity;
+    private ExecutorService workers; // kept between ingests
+    private ExecutorService partitionReaders; // kept between ingests
+    private int partitionReaderCount;
+
+    private final AtomicInteger recordsRead;
+    private final AtomicInteger recordsMapped;
+    private final AtomicInteger recordsOutsideServiceTerritory;
+    private final AtomicLong readNanos;
+    private final AtomicLong projectNanos;
+    private final AtomicLong filterNanos;
+    private final AtomicLong assembleNanos;
+
+    /**
+     * Initializes the pipeline.
+     *
+     * @param batchSize the number of records handed to a worker at a time
+     * @param workerCount the number of worker threads, zero for none
+     * @param queueCapacity the number of batches that may wait for a worker
+     */
+    public IngestPipeline(int batchSize, int workerCount, int queueCapacity) {
+        this.batchSize = Math.max(1, batchSize);
+        this.workerCount = Math.max(0, workerCount);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        recordsRead = new AtomicInteger();
+        recordsMapped = new AtomicInteger();
+        recordsOutsideServiceTerritory = new AtomicInteger();
+        readNanos = new AtomicLong();
+        projectNanos = new AtomicLong();
+        filterNanos = new AtomicLong();
+        assembleNanos = new AtomicLong();
+    }
+
+    /**
+     * Reads all of the customers out into the event map.
+     *
+     * @param customersOut the source of the outage data set
+     * @param events the event map to add points to
+     * @param serviceTerritory points outside of the service territory are not mapped
+     * @throws IOException
+     * @throws SQLException
+     */
+    public void ingest(CustomerSource customersOut, final EventMap events, final ServiceTerritory serviceTerritory)
+            throws IOException, SQLException {
+        this.resetMetrics();
+
+        if (workerCount == 0) {
+            CustomerBatch batch = new CustomerBatch(batchSize);
+            while (this.readBatch(customersOut, batch)) {
+                this.processBatch(batch, events, serviceTerritory);
+            }
+            this.logMetrics();
+            return;
+        }
+
+        // batches circulate between the free queue, the reader, the batch queue
+        // and the workers, so there is always one free batch for the reader
+        final BlockingQueue<CustomerBatch> batchQueue = new ArrayBlockingQueue(queueCapacity);
+        final BlockingQueue<CustomerBatch> freeBatches = new ArrayBlockingQueue(queueCapacity + workerCount + 1);
+        for (int i = 0; i < queueCapacity + workerCount + 1; i++) {
+            freeBatches.add(new CustomerBatch(batchSize));
+        }
+
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "outagemap-ingest");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        List<Future<Object>> workerResults = new ArrayList();
+        for (int i = 0; i < workerCount; i++) {
+            workerResults.add(workers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    Throwable failure = null;
+                    CustomerBatch batch = batchQueue.take();
+                    while (batch != END_OF_DATA) {
+                        // after a failure keep draining, so the reader is never blocked
+                        if (failure == null) {
+                            try {
+                                IngestPipeline.this.processBatch(batch, events, serviceTerritory);
+                            } catch (Throwable ex) {
+                                failure = ex; // errors too, such as from the geometry library
+                            }
+                        }
+                        freeBatches.put(batch);
+                        batch = batchQueue.take();
+                    }
+                    // rethrown to the reader, which wraps it, once the batches are drained
+                    if (failure instanceof Error) {
+                        throw (Error) failure;
+                    } else if (failure != null) {
+                        throw (Exception) failure;
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            try {
+                CustomerBatch batch = freeBatches.take();
+                while (this.readBatch(customersOut, batch)) {
+                    batchQueue.put(batch);
+                    batch = freeBatches.take();
+                }
+            } finally {
+                // wake every worker, even when the reader has failed
+                for (int i = 0; i < workerCount; i++) {
+                    batchQueue.put(END_OF_DATA);
+                }
+            }
+            for (Future<Object> workerResult : workerResults) {
+                workerResult.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.shutdown(); // workers may be left waiting on this ingest's queue
+            throw new IOException("Interrupted while reading customers out.", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Ingest worker failed. " + ex.getCause(), ex.getCause());
+        }
+        this.logMetrics();
+    }
+
+    /**
+     * Reads all of the customers out into the event map, using one database
+     * connection and reader thread per partition of the source query. Each
+     * partition thread also projects, filters and adds its own points. As no
+     * event spans two partitions, the polygons of a partition's events are
+     * computed as soon as that partition has been read, while the other
+     * partitions are still being read.
+     *
+     * @param partitionCount the number of partitions
+     * @param events the event map to add points to
+     * @param serviceTerritory points outside of the service territory are not mapped
+     * @throws IOException
+     * @throws SQLException
+     */
+    public void ingestPartitioned(final int partitionCount, final EventMap events, final ServiceTerritory serviceTerritory)
+            throws IOException, SQLException {
+        this.resetMetrics();
+        OutageDataFactory.openPartitions(partitionCount);
+
+        if ((partitionReaders == null) || (partitionReaderCount != partitionCount)) {
+            if (partitionReaders != null) {
+                partitionReaders.shutdownNow();
+            }
+            partitionReaders = Executors.newFixedThreadPool(partitionCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "outagemap-partition");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            partitionReaderCount = partitionCount;
+        }
+
+        List<Future<Object>> partitionResults = new ArrayList();
+        for (int i = 0; i < partitionCount; i++) {
+            final int partition = i;
+            partitionResults.add(partitionReaders.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    IngestPipeline.this.ingestPartition(partitionCount, partition, events, serviceTerritory);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Object> partitionResult : partitionResults) {
+                partitionResult.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading customers out.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw new IOException("Partition reader failed. " + ex.getCause(), ex.getCause());
+        }
+        this.logMetrics();
+    }
+
+    /**
+     * Reads all of the customers out into the event map, from a source
+     * ordered by EVENT_IDX and then SUPPLY_IDX, and hands each supply node and
+     * then each event to the geometry stage as soon as its last record has
+     * been read. Their points are dropped once computed, so only the events
+     * still being read or computed hold their points. The batches are
+     * processed on the reader thread, as the order of the records must be
+     * kept.
+     *
+     * @param customersOut the source of the outage data set, in order
+     * @param events the event map to add points to
+     * @param serviceTerritory points outside of the service territory are not mapped
+     * @param geometryStage the stage that computes the events as they are read
+     * @return the geometry of each event by EVENT_IDX, in the order read,
+     * which can not be modified
+     * @throws IOException if the source is not in order, or the geometry of
+     * an event fails
+     * @throws SQLException
+     */
+    public Map<Long, EventGeometry> ingestStreaming(CustomerSource customersOut, EventMap events,
+            ServiceTerritory serviceTerritory, GeometryStage geometryStage) throws IOException, SQLException {
+        this.resetMetrics();
+        Logger log = Log.getLogger();
+        long startTime = System.currentTimeMillis();
+        CustomerBatch batch = new CustomerBatch(batchSize);
+        int supplyNodesStreamed = 0;
+        int eventsStreamed = 0;
+
+        // the last record read, and the open supply node, of the records kept
+        long lastEventIdx = Long.MIN_VALUE;
+        long lastSupplyIdx = Long.MIN_VALUE;
+        boolean groupOpen = false;
+        long groupEventIdx = 0;
+        long groupSupplyIdx = 0;
+
+        geometryStage.start();
+        Map<Long, EventGeometry> eventGeometries;
+        try {
+            while (this.readBatch(customersOut, batch)) {
+                for (int row = 0; row < batch.size(); row++) {
+                    long eventIdx = batch.getEventIdx(row);
+                    long supplyIdx = batch.getSupplyIdx(row);
+                    if ((eventIdx < lastEventIdx) || ((eventIdx == lastEventIdx) && (supplyIdx < lastSupplyIdx))) {
+                        throw new IOException("Customers out are not ordered by EVENT_IDX, SUPPLY_IDX at EVENT_IDX "
+                                + eventIdx + ", SUPPLY_IDX " + supplyIdx + ".");
+                    }
+                    lastEventIdx = eventIdx;
+                    lastSupplyIdx = supplyIdx;
+                }
+
+                this.processBatch(batch, events, serviceTerritory);
+
+                // a supply node, or event, is complete once a record of the next one is kept
+                for (int row = 0; row < batch.size(); row++) {
+                    long eventIdx = batch.getEventIdx(row);
+                    long supplyIdx = batch.getSupplyIdx(row);
+                    if (groupOpen && (eventIdx == groupEventIdx) && (supplyIdx == groupSupplyIdx)) {
+                        continue;
+                    }
+                    if (groupOpen) {
+                        geometryStage.submitSupplyNode(events, groupEventIdx, groupSupplyIdx);
+                        supplyNodesStreamed++;
+                        if ((eventIdx != groupEventIdx) && events.containsEvent(groupEventIdx)) {
+                            geometryStage.submitEvent(events, groupEventIdx);
+                            eventsStreamed++;
+                        }
+                    }
+                    groupOpen = true;
+                    groupEventIdx = eventIdx;
+                    groupSupplyIdx = supplyIdx;
+                }
+            }
+            if (groupOpen) {
+                geometryStage.submitSupplyNode(events, groupEventIdx, groupSupplyIdx);
+                supplyNodesStreamed++;
+                if (events.containsEvent(groupEventIdx)) {
+                    geometryStage.submitEvent(events, groupEventIdx);
+                    eventsStreamed++;
+                }
+            }
+            eventGeometries = geometryStage.finish();
+        } catch (IOException | SQLException | RuntimeException ex) {
+            geometryStage.cancel();
+            throw ex;
+        }
+
+        log.log(Level.INFO, "Streaming metric: {0} supply node(s) and {1} event(s) computed as read, "
+                + "in {2} milliseconds. (environment={3})",
+                new Object[]{supplyNodesStreamed, eventsStreamed, System.currentTimeMillis() - startTime,
+                    Config.INSTANCE.getEnvironmentLabel()});
+        this.logMetrics();
+        return eventGeometries;
+    }
+
+    // Reads, maps and computes the events of one partition.
+    private void ingestPartition(int partitionCount, int partition, EventMap events, ServiceTerritory serviceTerritory)
+            throws IOException, SQLException {
+        Logger log = Log.getLogger();
+        long partitionStartTime = System.currentTimeMillis();
+        CustomerBatch batch = new CustomerBatch(batchSize);
+        HashSet<Long> partitionEvents = new HashSet();
+        int partitionRecordsRead = 0;
+
+        CustomerSource customersOut = new CustomerRowDecoder(OutageDataFactory.getCustomersOut(partitionCount, partition));
+        while (this.readBatch(customersOut, batch)) {
+            partitionRecordsRead += batch.size();
+            this.processBatch(batch, events, serviceTerritory);
+            for (int row = 0; row < batch.size(); row++) {
+                if ((row == 0) || (batch.getEventIdx(row) != batch.getEventIdx(row - 1))) {
+                    partitionEvents.add(batch.getEventIdx(row));
+                }
+            }
+        }
+        long partitionReadTime = System.currentTimeMillis() - partitionStartTime;
+
+        // compute the polygons of this partition's events, which are now complete
+        long geometryStartTime = System.currentTimeMillis();
+        int eventsComputed = 0;
+        for (Long eventIdx : partitionEvents) {
+            SupplyNodeMap supplyNodeMap = events.getSupplyNodeMap(eventIdx);
+            if (supplyNodeMap != null) {
+                supplyNodeMap.getPolygons();
+                eventsComputed++;
+            }
+        }
+        long geometryTime = System.currentTimeMillis() - geometryStartTime;
+
+        log.log(Level.INFO, "Database metric: partition {0} of {1}, {2} customer record points(s) read in {3} milliseconds; "
+                + "{4} event(s) computed in {5} milliseconds. (environment={6})",
+                new Object[]{partition + 1, partitionCount, partitionRecordsRead, partitionReadTime,
+                    eventsComputed, geometryTime, Config.INSTANCE.getEnvironmentLabel()});
+    }
+
+    /**
+     * Stops the worker threads, which are otherwise kept between ingests.
+     */
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+        if (partitionReaders != null) {
+            partitionReaders.shutdownNow();
+            partitionReaders = null;
+        }
+    }
+
+    // Clears the metrics of the last ingest.
+    private void resetMetrics() {
+        recordsRead.set(0);
+        recordsMapped.set(0);
+        recordsOutsideServiceTerritory.set(0);
+        readNanos.set(0);
+        projectNanos.set(0);
+        filterNanos.set(0);
+        assembleNanos.set(0);
+    }
+
+    // Fills the batch from the source, returning false when no records were read.
+    private boolean readBatch(CustomerSource customersOut, CustomerBatch batch) throws IOException, SQLException {
+        long startTime = System.nanoTime();
+        int recordCount = customersOut.read(batch);
+        recordsRead.addAndGet(recordCount);
+        long decodeNanos = System.nanoTime() - startTime;
+        readNanos.addAndGet(decodeNanos);
+        if (recordCount > 0) {
+            StageMetrics.record(StageMetrics.Stage.DECODE, decodeNanos);
+        }
+        return recordCount > 0;
+    }
+
+    // Filters, projects and adds the batched points to the event map.
+    private void processBatch(CustomerBatch batch, EventMap events, ServiceTerritory serviceTerritory) {
+        long batchAssembleNanos = 0;
+
+        // drop the points without coordinates or outside of the service
+        // territory, before they are projected
+        long startTime = System.nanoTime();
+        int outsideCount = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            double customerX = batch.getCustomerX(row);
+            double customerY = batch.getCustomerY(row);
+            if (Double.isNaN(customerX) || Double.isNaN(customerY)) {
+                batch.reject(row);
+                PointRejects.reject(PointRejects.Reason.NULL_COORDINATES, batch.getSupplyIdx(row), customerX, customerY);
+            } else if (!serviceTerritory.contains(customerX, customerY)) {
+                batch.reject(row);
+                PointRejects.reject(PointRejects.Reason.OUTSIDE_TERRITORY, batch.getSupplyIdx(row), customerX, customerY);
+                outsideCount++;
+            }
+        }
+        batch.removeRejected();
+        recordsOutsideServiceTerritory.addAndGet(outsideCount);
+        long filteredTime = System.nanoTime();
+        long batchFilterNanos = filteredTime - startTime;
+
+        // re-project the whole batch at once, and drop the points that failed
+        batch.project(ProjectTool.getTransform(Config.INSTANCE.getInputProjWKID(), Config.INSTANCE.getGeometryProjWKID()));
+        boolean projectionFailed = false;
+        for (int row = 0; row < batch.size(); row++) {
+            if (!IngestPipeline.isFinite(batch.getProjectedX(row)) || !IngestPipeline.isFinite(batch.getProjectedY(row))) {
+                batch.reject(row);
+                PointRejects.reject(PointRejects.Reason.PROJECTION_FAILED, batch.getSupplyIdx(row),
+                        batch.getCustomerX(row), batch.getCustomerY(row));
+                projectionFailed = true;
+            }
+        }
+        if (projectionFailed) {
+            batch.removeRejected();
+        }
+        long batchProjectNanos = System.nanoTime() - filteredTime;
+
+        for (int row = 0; row < batch.size(); row++) {
+            long assembleStartTime = System.nanoTime();
+            // the event attributes are formatted by the event map, only for a new event
+            if (events.addPoint(batch.getEventIdx(row), batch.getSupplyIdx(row),
+                    batch.getProjectedX(row), batch.getProjectedY(row),
+                    batch.getCause(row), batch.getEtor(row), batch.getCustsByEvent(row),
+                    batch.getEventBegin(row), batch.isCrewDispatched(row))) {
+                recordsMapped.incrementAndGet();
+            } else {
+                PointRejects.reject(PointRejects.Reason.DISTANCE_EXCEEDED, batch.getSupplyIdx(row),
+                        batch.getProjectedX(row), batch.getProjectedY(row));
+            }
+            batchAssembleNanos += System.nanoTime() - assembleStartTime;
+        }
+
+        projectNanos.addAndGet(batchProjectNanos);
+        filterNanos.addAndGet(batchFilterNanos);
+        assembleNanos.addAndGet(batchAssembleNanos);
+        StageMetrics.record(StageMetrics.Stage.PROJECT, batchProjectNanos);
+        StageMetrics.record(StageMetrics.Stage.FILTER, batchFilterNanos);
+        StageMetrics.record(StageMetrics.Stage.ASSEMBLE, batchAssembleNanos);
+    }
+
+    // True if a coordinate is neither NaN nor infinite, as from a failed projection.
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    // Logs the per stage throughput of the last ingest.
+    private void logMetrics() throws IOException {
+        Logger log = Log.getLogger();
+        log.log(Level.INFO, "Ingest metric: {0} worker(s); read {1} record(s) in {2} milliseconds, "
+                + "projected in {3}, filtered in {4}, assembled {5} in {6} milliseconds of worker time. (environment={7})",
+                new Object[]{workerCount, recordsRead.get(), readNanos.get() / 1000000L, projectNanos.get() / 1000000L,
+                    filterNanos.get() / 1000000L, recordsMapped.get(), assembleNanos.get() / 1000000L,
+                    Config.INSTANCE.getEnvironmentLabel()});
+    }
+
+    /**
+     * @return the count of records read from the data set
+     */
+    public int getRecordsRead() {
+        return recordsRead.get();
+    }
+
+    /**
+     * @return the count of records mapped to an event
+     */
+    public int getRecordsMapped() {
+        return recordsMapped.get();
+    }
+
+    /**
+     * @return the count of records outside of the service territory
+     */
+    public int getRecordsOutsideServiceTerritory() {
+        return recordsOutsideServiceTerritory.get();
+    }
+}
@@ -7,11 +7,13 @@ import com.esri.core.geometry.Polygon;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,6 +25,18 @@ import java.util.logging.Logger;
 public class KmlCreator {
     
     static boolean hasCovexedEvents = false; // flag to make one attempt a shrinking KML file size
+    static boolean configuredConvexHullEvents; // the setting before shrinking the KML file size
+
+    /**
+     * Restores the configured event convex hull setting after a KML file was
+     * generalized, so that each refresh cycle starts with the configured value.
+     */
+    public static void resetGeneralization() {
+        if (KmlCreator.hasCovexedEvents) {
+            Config.INSTANCE.setConvexHullEvents(KmlCreator.configuredConvexHullEvents);
+            KmlCreator.hasCovexedEvents = false;
+        }
+    }
 
     /**
      * Creates a KML file.
@@ -30,9 +44,12 @@ public class KmlCreator {
      * @param applicationPath the path to the application's main class or .jar
      * file
      * @param eventMap
+     * @param eventGeometries the computed geometry of each event, see
+     * GeometryStage
      * @throws IOException
      */
-    public static void createKml(EventMap eventMap, String applicationPath) throws IOException {
+    public static void createKml(EventMap eventMap, Map<Long, EventGeometry> eventGeometries, String applicationPath)
+            throws IOException {
 
         long kmlStartTime = System.currentTimeMillis();
         int eventsMapped = 0;
@@ -96,11 +113,13 @@ public class KmlCreator {
             outputFile.write("</Style>\r\n");
 
             // initiate iterator loop on events
-            Iterator<Long> eventKeyItr = eventMap.keySet().iterator();
+            Iterator<Long> eventKeyItr = eventGeometries.keySet().iterator();
             Long eventKey;
             eventsMapped = 0;
             while (eventKeyItr.hasNext()) {
                 eventKey = eventKeyItr.next();
+                long eventStartTime = System.nanoTime();
+                EventGeometry eventGeometry = eventGeometries.get(eventKey);
 
                 outputFile.write("<Placemark id=\"");
                 outputFile.write(eventKey.toString());
@@ -111,7 +130,7 @@ public class KmlCreator {
                 outputFile.write("<value><![CDATA[<iframe>Outage start: ");
                 outputFile.write(eventMap.getEventBegin(eventKey));
                 outputFile.write("<br/>Est. customers affected: ");
-                outputFile.write(eventMap.getCustsByEvent(eventKey).toString());
+                outputFile.write(Integer.toString(eventMap.getCustsByEvent(eventKey)));
                 outputFile.write("<br/>"); // "Est. restoration: " ... provided by db materialized view
                 outputFile.write(eventMap.getEtor(eventKey));
                 outputFile.write("<br/>Cause: ");
@@ -125,7 +144,7 @@ public class KmlCreator {
                 outputFile.write("</ExtendedData>\r\n");
                 outputFile.write("<Point>\r\n");
                 outputFile.write("<coordinates>");
-                Point labelPoint = eventMap.getLabelPoint(eventKey);
+                Point labelPoint = eventGeometry.getLabelPoint();
                 outputFile.write(Double.toString(labelPoint.getX()));
                 outputFile.write(",");
                 outputFile.write(Double.toString(labelPoint.getY()));
@@ -137,13 +156,13 @@ public class KmlCreator {
                 Polygon[] eventPolygons = null;
 
                 if (Config.INSTANCE.isConvexHullEvents()) {
-                    Geometry[] geometries = GeometryEngine.convexHull(eventMap.getEventPolygons(eventKey), true);
+                    Geometry[] geometries = GeometryEngine.convexHull(eventGeometry.getPolygons(), true);
                     eventPolygons = new Polygon[geometries.length];
                     for (int i = 0; i < geometries.length; i++) {
                         eventPolygons[i] = (Polygon) geometries[i];
                     }
                 } else {
-                    eventPolygons = eventMap.getEventPolygons(eventKey);
+                    eventPolygons = eventGeometry.getPolygons();
                 }
                 for (int eventPolygonIndex = 0; eventPolygonIndex < eventPolygons.length; eventPolygonIndex++) {
                     outputFile.write("<Placemark id=\"");
@@ -155,7 +174,7 @@ public class KmlCreator {
                     outputFile.write("<value><![CDATA[<iframe>Outage start: ");
                     outputFile.write(eventMap.getEventBegin(eventKey));
                     outputFile.write("<br/>Est. customers affected: ");
-                    outputFile.write(eventMap.getCustsByEvent(eventKey).toString());
+                    outputFile.write(Integer.toString(eventMap.getCustsByEvent(eventKey)));
                     outputFile.write("<br/>"); // "Est. restoration: " ... provided by db materialized view
                     outputFile.write(eventMap.getEtor(eventKey));
                     outputFile.write("<br/>Cause: ");
@@ -176,14 +195,7 @@ public class KmlCreator {
                     if (polygon == null) {
                         log.log(Level.FINEST, "WARNING: polygon in KmlCreator is null. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
                     }
-                    for (int i = 0; i < polygon.getPointCount(); i++) {
-                        Point point = polygon.getPoint(i);
-                        outputFile.write(decimalFormat.format(point.getX()));
-                        outputFile.write(",");
-                        outputFile.write(decimalFormat.format(point.getY()));
-                        outputFile.write(",0 ");
-                        pointsMapped++;
-                    }
+                    pointsMapped += KmlCreator.writeCoordinates(outputFile, polygon, decimalFormat);
                     outputFile.write("</coordinates>\r\n");
                     outputFile.write("</LinearRing>\r\n");
                     outputFile.write("</outerBoundaryIs>\r\n");
@@ -192,6 +204,7 @@ public class KmlCreator {
                     polygonsMapped++;
                 }
                 eventsMapped++;
+                StageMetrics.record(StageMetrics.Stage.KML_WRITE, System.nanoTime() - eventStartTime);
             }
 
             // finish file
@@ -202,9 +215,10 @@ public class KmlCreator {
         File kmlFile = new File(outputFilePath);
         if ((kmlFile.length() > Config.INSTANCE.getFileMaxSizeBytes()) && (KmlCreator.hasCovexedEvents == false)) {
             log.log(Level.INFO, "KML output exceeds maximum file size, creating convex hull from each event. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+            KmlCreator.configuredConvexHullEvents = Config.INSTANCE.isConvexHullEvents();
             Config.INSTANCE.setConvexHullEvents(true);
             KmlCreator.hasCovexedEvents = true;
-            KmlCreator.createKml(eventMap, applicationPath);
+            KmlCreator.createKml(eventMap, eventGeometries, applicationPath);
             try {
                 EmailAlertSender.send("Alert: Outage Map", "Map has been generalize due to Google size limitation.");
             } catch (Exception ex1) {
@@ -217,4 +231,24 @@ public class KmlCreator {
                 new Object[]{eventsMapped, polygonsMapped, pointsMapped, kmlFinishTime, Config.INSTANCE.getEnvironmentLabel()});
 
     }
+
+    /**
+     * Writes the points of a polygon as KML coordinates.
+     *
+     * @param output the KML output
+     * @param polygon the polygon
+     * @param decimalFormat the coordinate format
+     * @return the number of points written
+     * @throws IOException
+     */
+    static int writeCoordinates(Writer output, Polygon polygon, DecimalFormat decimalFormat) throws IOException {
+        for (int i = 0; i < polygon.getPointCount(); i++) {
+            Point point = polygon.getPoint(i);
+            output.write(decimalFormat.format(point.getX()));
+            output.write(",");
+            output.write(decimalFormat.format(point.getY()));
+            output.write(",0 ");
+        }
+        return polygon.getPointCount();
+    }
 }
@@ -19,6 +19,8 @@ public class Log {
 
     private static Logger appLogger;
     private static FileHandler appFileHandler;
+    private static String appLogDirectory;
+    private static String appLogDate;
 
     /**
      * Creates logger.
@@ -77,6 +79,8 @@ public class Log {
                     System.out.println("ERROR: Unable to create logging file handler in scl.oms.outagemap");
                     throw e;
                 }
+                appLogDirectory = outputFilePath;
+                appLogDate = applicationDateFormat.format(todaysDate);
 
                 appFileHandler.setFormatter(simpleFormater);
                 appLogger.addHandler(appFileHandler);
@@ -89,6 +93,31 @@ public class Log {
         return appLogger;
     }
 
+    /**
+     * Starts a new log file if the day has changed since the log file was
+     * opened, which is needed when the application runs as a service.
+     *
+     * @throws IOException
+     */
+    public static void rollOver() throws IOException {
+        if (appLogger == null) {
+            throw new IOException("Logger has not yet been created.");
+        }
+        DateFormat applicationDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        String todaysDate = applicationDateFormat.format(new Date());
+        if (todaysDate.equals(appLogDate)) {
+            return;
+        }
+
+        FileHandler newFileHandler = new FileHandler((appLogDirectory + "outagemap_log_" + todaysDate + ".txt"), true);
+        newFileHandler.setFormatter(new SimpleFormatter());
+        appLogger.addHandler(newFileHandler);
+        appLogger.removeHandler(appFileHandler);
+        appFileHandler.close();
+        appFileHandler = newFileHandler;
+        appLogDate = todaysDate;
+    }
+
     /**
      * Closes the log file.
      */
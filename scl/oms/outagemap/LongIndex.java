@@ -0,0 +1,155 @@
+package scl.oms.outagemap;
+
+import java.util.Arrays;
+
+/**
+ * This class maps long keys, such as EVENT_IDX and SUPPLY_IDX, to int slots
+ * in the owner's own arrays, without boxing. It is an open-addressing table,
+ * probed linearly, so each key costs a long and an int rather than a Long, an
+ * entry and a bucket. Removal shifts the entries that follow back into the
+ * gap, so there are no tombstones. The index is not synchronized.
+ *
+ * @author jstewart
+ */
+public class LongIndex {
+
+    private static final int NO_SLOT = -1;
+    private static final int MIN_CAPACITY = 4;
+
+    private final float loadFactor;
+    private long[] keys;
+    private int[] slots; // NO_SLOT where the table is empty
+    private int mask;
+    private int size;
+    private int resizeSize;
+
+    /**
+     * Initializes the index.
+     *
+     * @param expectedSize the number of keys to hold before growing
+     * @param loadFactor the fraction of the table filled before it grows,
+     * between 0.25 and 0.9
+     */
+    public LongIndex(int expectedSize, float loadFactor) {
+        this.loadFactor = Math.max(0.25f, Math.min(0.9f, loadFactor));
+        int capacity = MIN_CAPACITY;
+        while (capacity * this.loadFactor < expectedSize) {
+            capacity <<= 1;
+        }
+        this.allocate(capacity);
+    }
+
+    /**
+     * @param key the key
+     * @return the key's slot, or -1 if the key is not in the index
+     */
+    public int get(long key) {
+        int position = LongIndex.hash(key) & mask;
+        while (slots[position] != NO_SLOT) {
+            if (keys[position] == key) {
+                return slots[position];
+            }
+            position = (position + 1) & mask;
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Adds a key, or changes its slot.
+     *
+     * @param key the key
+     * @param slot the key's slot, which may not be negative
+     */
+    public void put(long key, int slot) {
+        int position = LongIndex.hash(key) & mask;
+        while (slots[position] != NO_SLOT) {
+            if (keys[position] == key) {
+                slots[position] = slot;
+                return;
+            }
+            position = (position + 1) & mask;
+        }
+        keys[position] = key;
+        slots[position] = slot;
+        if (++size > resizeSize) {
+            this.rehash(2 * keys.length);
+        }
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key
+     * @return the key's slot, or -1 if the key was not in the index
+     */
+    public int remove(long key) {
+        int position = LongIndex.hash(key) & mask;
+        while (slots[position] != NO_SLOT) {
+            if (keys[position] == key) {
+                int slot = slots[position];
+                this.shiftBack(position);
+                size--;
+                return slot;
+            }
+            position = (position + 1) & mask;
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    // Fills the gap at a position with the following entries that may move
+    // back into it, until the run of entries ends.
+    private void shiftBack(int gap) {
+        int position = gap;
+        while (true) {
+            position = (position + 1) & mask;
+            if (slots[position] == NO_SLOT) {
+                break;
+            }
+            int home = LongIndex.hash(keys[position]) & mask;
+            // the entry may move if its home is not within (gap, position]
+            if (((position - home) & mask) >= ((position - gap) & mask)) {
+                keys[gap] = keys[position];
+                slots[gap] = slots[position];
+                gap = position;
+            }
+        }
+        slots[gap] = NO_SLOT;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        this.allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != NO_SLOT) {
+                int position = LongIndex.hash(oldKeys[i]) & mask;
+                while (slots[position] != NO_SLOT) {
+                    position = (position + 1) & mask;
+                }
+                keys[position] = oldKeys[i];
+                slots[position] = oldSlots[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, NO_SLOT);
+        mask = capacity - 1;
+        resizeSize = (int) (capacity * loadFactor);
+    }
+
+    // Spreads the keys, which are often sequential, over the table.
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -1,9 +1,11 @@
 package scl.oms.outagemap;
 
 import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import oracle.jdbc.OracleConnection;
@@ -18,6 +20,11 @@ import oracle.jdbc.pool.OracleDataSource;
 public class OutageDataFactory {
 
     private static OracleConnection sourceDBConn;
+    private static Statement sqlStatement;
+    private static OracleConnection[] partitionConns = new OracleConnection[0];
+    private static Statement[] partitionStatements = new Statement[0];
+
+    private static final int CONNECTION_VALID_TIMEOUT = 5; // seconds
 
     private OutageDataFactory() {
     }
@@ -42,23 +49,278 @@ public class OutageDataFactory {
     }
 
     /**
+     * Queries the customers out. An open database connection is reused as
+     * long as it is still valid. With the streamingIngestOn, the customers
+     * out are ordered by EVENT_IDX and SUPPLY_IDX.
      *
      * @return @throws IOException
      * @throws SQLException
      */
     public static OracleResultSet getCustomersOut() throws IOException, SQLException {
         OracleResultSet customersOut;
-        sourceDBConn = OutageDataFactory.getDatabaseConnection();
+        if ((sourceDBConn == null) || !sourceDBConn.isValid(CONNECTION_VALID_TIMEOUT)) {
+            OutageDataFactory.closeDatabaseConnection();
+            sourceDBConn = OutageDataFactory.getDatabaseConnection();
+        }
         String sqlString = Config.INSTANCE.getSourceDbSQL();
+        if (Config.INSTANCE.isStreamingIngestOn()) {
+            // the streaming ingest finds the end of each supply node and event by this order
+            sqlString = "SELECT * FROM (" + sqlString + ") ORDER BY EVENT_IDX, SUPPLY_IDX";
+        }
         Logger log = Log.getLogger();
         log.log(Level.FINEST, "SQL string is: {0} (evironment ={1})",
                 new Object[]{sqlString, Config.INSTANCE.getEnvironmentLabel()});
-        Statement sqlStatement = sourceDBConn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        int fetchSize = Config.INSTANCE.getSourceDbFetchSize();
+        if (fetchSize > 0) {
+            // the row prefetch sets the rows returned per network round-trip
+            sourceDBConn.setDefaultRowPrefetch(fetchSize);
+        }
+        sqlStatement = sourceDBConn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (fetchSize > 0) {
+            sqlStatement.setFetchSize(fetchSize);
+        }
         customersOut = (OracleResultSet) sqlStatement.executeQuery(sqlString);
 
         return customersOut;
     }
 
+    /**
+     * Provides the customers out as a customer source, as configured by the
+     * inputSource: "oracle" queries the OMS/NMS database, "replay" reads
+     * the replayFile recording and "synthetic" generates storm-scale
+     * customers out for load testing. If a recordFile is configured, the customers
+     * out read are also recorded to it.
+     *
+     * @return the customer source
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static CustomerSource getCustomerSource() throws IOException, SQLException {
+        CustomerSource customerSource;
+        String inputSource = Config.INSTANCE.getInputSource();
+        if ("replay".equalsIgnoreCase(inputSource)) {
+            customerSource = new ReplayCustomerSource(Config.INSTANCE.getReplayFile());
+        } else if ("synthetic".equalsIgnoreCase(inputSource)) {
+            Config config = Config.INSTANCE;
+            customerSource = new SyntheticCustomerSource(config.getSyntheticSeed(),
+                    config.getSyntheticEventCount(), config.getSyntheticSupplyNodesPerEvent(),
+                    config.getSyntheticCustomersPerSupplyNode(), config.getSyntheticSpread(),
+                    config.getSyntheticOutlierRate(), config.getServiceEnvelope(),
+                    config.getServiceEnvelopeWkid(), config.getInputProjWKID());
+        } else if ("oracle".equalsIgnoreCase(inputSource)) {
+            customerSource = new CustomerRowDecoder(OutageDataFactory.getCustomersOut());
+        } else {
+            throw new IOException("Unknown input source " + inputSource + ".");
+        }
+
+        String recordFile = Config.INSTANCE.getRecordFile();
+        if ((recordFile != null) && !recordFile.isEmpty()) {
+            customerSource = new RecordingCustomerSource(customerSource, recordFile);
+        }
+        return customerSource;
+    }
+
+    /**
+     * Provides all of the served customers, from which the FootprintAtlas is
+     * built. With the "oracle" inputSource they are queried by the
+     * footprintAtlasSQL, in the columns of the customers out; otherwise the
+     * records of the replay or synthetic source are taken as the served
+     * customers.
+     *
+     * @return the served customers, as a customer source
+     * @throws IOException if the footprintAtlasSQL is not configured
+     * @throws SQLException
+     */
+    public static CustomerSource getServedCustomers() throws IOException, SQLException {
+        if (!"oracle".equalsIgnoreCase(Config.INSTANCE.getInputSource())) {
+            return OutageDataFactory.getCustomerSource();
+        }
+        String sqlString = Config.INSTANCE.getFootprintAtlasSQL();
+        if ((sqlString == null) || sqlString.isEmpty()) {
+            throw new IOException("No footprintAtlasSQL is configured for the served customers.");
+        }
+        if ((sourceDBConn == null) || !sourceDBConn.isValid(CONNECTION_VALID_TIMEOUT)) {
+            OutageDataFactory.closeDatabaseConnection();
+            sourceDBConn = OutageDataFactory.getDatabaseConnection();
+        }
+        Logger log = Log.getLogger();
+        log.log(Level.FINEST, "SQL string is: {0} (evironment ={1})",
+                new Object[]{sqlString, Config.INSTANCE.getEnvironmentLabel()});
+        sqlStatement = sourceDBConn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        int fetchSize = Config.INSTANCE.getSourceDbFetchSize();
+        if (fetchSize > 0) {
+            sqlStatement.setFetchSize(fetchSize);
+        }
+        return new CustomerRowDecoder(sqlStatement.executeQuery(sqlString));
+    }
+
+    /**
+     * Provides the service territory, as configured by the territory polygon,
+     * or else by the service envelope, indexed in the input coordinate system.
+     *
+     * @return the service territory
+     */
+    public static ServiceTerritory getServiceTerritory() {
+        Config config = Config.INSTANCE;
+        if ((config.getServiceTerritory() != null) && !config.getServiceTerritory().isEmpty()) {
+            return new ServiceTerritory(config.getServiceTerritory(), config.getServiceTerritoryWkid(),
+                    config.getInputProjWKID(), config.getTerritoryGridSize());
+        }
+        return new ServiceTerritory(ServiceTerritory.toPolygon(config.getServiceEnvelope()),
+                config.getServiceEnvelopeWkid(), config.getInputProjWKID(), config.getTerritoryGridSize());
+    }
+
+    /**
+     * Prepares one database connection slot per partition, before the
+     * partitions are read on separate threads. Open connections are kept
+     * while the partition count is unchanged.
+     *
+     * @param partitionCount the number of partitions
+     * @throws IOException
+     */
+    public static void openPartitions(int partitionCount) throws IOException {
+        if (partitionConns.length != partitionCount) {
+            OutageDataFactory.closePartitions();
+            partitionConns = new OracleConnection[partitionCount];
+            partitionStatements = new Statement[partitionCount];
+        }
+    }
+
+    /**
+     * Queries one partition of the customers out, on the partition's own
+     * database connection. The configured SQL is wrapped with the partition
+     * predicate MOD(EVENT_IDX, partitionCount) = partition, so that no event
+     * spans two partitions. This method may be called from one thread per
+     * partition, after .openPartitions(partitionCount).
+     *
+     * @param partitionCount the number of partitions
+     * @param partition the partition to read, from zero
+     * @return the partition's customers out
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static ResultSet getCustomersOut(int partitionCount, int partition) throws IOException, SQLException {
+        OracleConnection partitionConn = partitionConns[partition];
+        if ((partitionConn == null) || !partitionConn.isValid(CONNECTION_VALID_TIMEOUT)) {
+            if (partitionConn != null) {
+                partitionConn.close();
+            }
+            partitionConn = OutageDataFactory.getDatabaseConnection();
+            partitionConns[partition] = partitionConn;
+        }
+        String sqlString = "SELECT * FROM (" + Config.INSTANCE.getSourceDbSQL() + ") WHERE MOD(EVENT_IDX, ?) = ?";
+        Logger log = Log.getLogger();
+        log.log(Level.FINEST, "Partition {0} SQL string is: {1} (evironment ={2})",
+                new Object[]{partition, sqlString, Config.INSTANCE.getEnvironmentLabel()});
+        int fetchSize = Config.INSTANCE.getSourceDbFetchSize();
+        if (fetchSize > 0) {
+            partitionConn.setDefaultRowPrefetch(fetchSize);
+        }
+        PreparedStatement partitionStatement = partitionConn.prepareStatement(sqlString,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        partitionStatements[partition] = partitionStatement;
+        if (fetchSize > 0) {
+            partitionStatement.setFetchSize(fetchSize);
+        }
+        partitionStatement.setInt(1, partitionCount);
+        partitionStatement.setInt(2, partition);
+        return partitionStatement.executeQuery();
+    }
+
+    /**
+     * Queries the customers out changed since the watermark, using the
+     * configured delta SQL, which has one bind parameter for the watermark.
+     * See DeltaIngest for the columns of the changed data set.
+     *
+     * @param watermark the time of the last change already applied
+     * @return the changed customers out
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static ResultSet getCustomersChanged(Timestamp watermark) throws IOException, SQLException {
+        if ((sourceDBConn == null) || !sourceDBConn.isValid(CONNECTION_VALID_TIMEOUT)) {
+            OutageDataFactory.closeDatabaseConnection();
+            sourceDBConn = OutageDataFactory.getDatabaseConnection();
+        }
+        String sqlString = Config.INSTANCE.getSourceDbDeltaSQL();
+        Logger log = Log.getLogger();
+        log.log(Level.FINEST, "Delta SQL string is: {0}, watermark is {1} (evironment ={2})",
+                new Object[]{sqlString, watermark, Config.INSTANCE.getEnvironmentLabel()});
+        PreparedStatement deltaStatement = sourceDBConn.prepareStatement(sqlString,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        sqlStatement = deltaStatement;
+        if (Config.INSTANCE.getSourceDbFetchSize() > 0) {
+            deltaStatement.setFetchSize(Config.INSTANCE.getSourceDbFetchSize());
+        }
+        deltaStatement.setTimestamp(1, watermark);
+        return deltaStatement.executeQuery();
+    }
+
+    /**
+     * Provides the current time of the source database, which is used as the
+     * watermark of a full read of the customers out.
+     *
+     * @return the source database time
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static Timestamp getSourceTimestamp() throws IOException, SQLException {
+        if ((sourceDBConn == null) || !sourceDBConn.isValid(CONNECTION_VALID_TIMEOUT)) {
+            OutageDataFactory.closeDatabaseConnection();
+            sourceDBConn = OutageDataFactory.getDatabaseConnection();
+        }
+        try (Statement timeStatement = sourceDBConn.createStatement();
+                ResultSet timeResult = timeStatement.executeQuery("SELECT LOCALTIMESTAMP FROM DUAL")) {
+            timeResult.next();
+            return timeResult.getTimestamp(1);
+        }
+    }
+
+    /**
+     * Closes the statement and result set from .getCustomersOut(), but keeps
+     * the database connection open, so that it is reused by the next call.
+     *
+     * @throws IOException
+     */
+    public static void closeCustomersOut() throws IOException {
+        for (int partition = 0; partition < partitionStatements.length; partition++) {
+            OutageDataFactory.closeStatement(partitionStatements[partition]);
+            partitionStatements[partition] = null;
+        }
+        OutageDataFactory.closeStatement(sqlStatement);
+        sqlStatement = null;
+    }
+
+    // Closes a statement, if open, logging any failure.
+    private static void closeStatement(Statement statement) throws IOException {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            Logger log = Log.getLogger();
+            log.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    // Closes the partition statements and connections.
+    private static void closePartitions() throws IOException {
+        for (int partition = 0; partition < partitionConns.length; partition++) {
+            OutageDataFactory.closeStatement(partitionStatements[partition]);
+            partitionStatements[partition] = null;
+            if (partitionConns[partition] != null) {
+                try {
+                    partitionConns[partition].close();
+                } catch (SQLException ex) {
+                    Logger log = Log.getLogger();
+                    log.log(Level.SEVERE, null, ex);
+                }
+                partitionConns[partition] = null;
+            }
+        }
+    }
+
     /**
      * Closes the database connection. Note that the database connection can not
      * be closed while the OracleResultSet from .getCustomersOut () is or will
@@ -67,11 +329,17 @@ public class OutageDataFactory {
      * @throws IOException
      */
     public static void closeDatabaseConnection() throws IOException {
+        OutageDataFactory.closeCustomersOut();
+        OutageDataFactory.closePartitions();
+        if (sourceDBConn == null) {
+            return;
+        }
         try {
             sourceDBConn.close();
         } catch (SQLException ex) {
             Logger log = Log.getLogger();
             log.getLogger(OutageDataFactory.class.getName()).log(Level.SEVERE, null, ex);
         }
+        sourceDBConn = null;
     }
 }
@@ -1,18 +1,14 @@
 package scl.oms.outagemap;
 
-import com.esri.core.geometry.Envelope;
-import com.esri.core.geometry.Point;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Iterator;
+import java.sql.Timestamp;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import oracle.jdbc.OracleResultSet;
-import oracle.sql.TIMESTAMP;
 
 /**
  * This class is the application that creates the outage map.
@@ -24,8 +20,65 @@ public class OutageMapCreator {
     /**
      * @param args the command line arguments, which ARE NOT USED by this
      * application
+     * @throws IOException if the logger has not been created
      */
-    public static void main(String[] args) throws SQLException {
+    public static void main(String[] args) throws IOException {
+        String applicationPath = OutageMapCreator.startUp();
+        Logger log = Log.getLogger(); // established by .startUp()
+
+        OutageMapCreator outageMapCreator = null;
+        try {
+            outageMapCreator = new OutageMapCreator(applicationPath);
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.SEVERE, null, ex);
+            log.log(Level.SEVERE, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+            Log.closeLogger();
+            System.out.println("ERROR: unable to initialize the outage map creator. " + ex.getMessage());
+            try {
+                EmailAlertSender.send("FAILURE: Outage Map", "Unable to initialize the outage map creator. " + ex.toString());
+            } catch (Exception ex1) {
+                System.out.println(ex1);
+            }
+            System.exit(1);
+        }
+
+        if (Config.INSTANCE.isServiceMode()) {
+            // run resident, refreshing the map until the process is stopped
+            OutageMapService outageMapService = new OutageMapService(outageMapCreator);
+            outageMapService.run();
+            System.out.println("Exiting successfully.");
+            return; // the service has already closed logging, as the JVM is shutting down
+        }
+
+        try {
+            outageMapCreator.runCycle();
+        } catch (IOException | SQLException ex) {
+            log.log(Level.SEVERE, ex.toString());
+            log.log(Level.SEVERE, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+            Log.closeLogger();
+            try {
+                EmailAlertSender.send("FAILURE: Outage Map", "Unable to read outage map database. " + ex.toString());
+            } catch (Exception ex1) {
+                System.out.println(ex1);
+            }
+            System.exit(1);
+        }
+
+        log.log(Level.INFO, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+        Log.closeLogger();
+
+        System.out.println("Exiting successfully.");
+        System.exit(0);
+    }
+
+    /**
+     * Starts the application: determines the application path, starts
+     * logging and loads the configuration. The application exits if any of
+     * these fail.
+     *
+     * @return the path to the application's main class or .jar file
+     */
+    static String startUp() {
 
         System.out.print("Determining location of application...");
         String applicationPath = null;
@@ -79,104 +132,173 @@ public class OutageMapCreator {
             log.setLevel(Level.INFO);
         }
 
-        // Convert service territory envelope as needed to the output WKID
-        Config.INSTANCE.setServiceEnvelope(ProjectTool.project(Config.INSTANCE.getServiceEnvelope(),
-                Config.INSTANCE.getServiceEnvelopeWkid(), Config.INSTANCE.getOutputProjWKID()));
-        Config.INSTANCE.setServiceEnvelopeWkid(Config.INSTANCE.getOutputProjWKID());
-        Envelope serviceTerritory = Config.INSTANCE.getServiceEnvelope();
+        // Convert service territory envelope as needed to the WKID the polygons are computed in
+        try {
+            Config.INSTANCE.setServiceEnvelope(ProjectTool.project(Config.INSTANCE.getServiceEnvelope(),
+                    Config.INSTANCE.getServiceEnvelopeWkid(), Config.INSTANCE.getGeometryProjWKID()));
+            Config.INSTANCE.setServiceEnvelopeWkid(Config.INSTANCE.getGeometryProjWKID());
+        } catch (RuntimeException ex) {
+            log.log(Level.SEVERE, null, ex);
+            System.out.println("ERROR: unable to project the service territory envelope. " + ex.getMessage());
+            try {
+                EmailAlertSender.send("FAILURE: Outage Map", "Unable to project the service territory envelope. " + ex.toString());
+            } catch (Exception ex1) {
+                System.out.println(ex1);
+            }
+            System.exit(1);
+        }
+
+        return applicationPath;
+    }
+
+    private final String applicationPath;
+    private final IngestPipeline ingestPipeline;
+    private final DeltaIngest deltaIngest;
+    private final GeometryStage geometryStage;
+    private final ServiceTerritory serviceTerritory;
+    private EventMap residentEvents; // kept between cycles in incremental mode
+    private Timestamp watermark;
+    private int cyclesSinceFullRead;
+
+    /**
+     * Initializes the outage map creator, which is reused for every refresh
+     * cycle when running as a service.
+     *
+     * @param applicationPath the path to the application's main class or .jar
+     * file
+     * @throws IOException if the logger has not been created
+     */
+    public OutageMapCreator(String applicationPath) throws IOException {
+        this.applicationPath = applicationPath;
+        ingestPipeline = new IngestPipeline(Config.INSTANCE.getIngestBatchSize(),
+                Config.INSTANCE.getIngestWorkerCount(), Config.INSTANCE.getIngestQueueCapacity());
+        deltaIngest = new DeltaIngest(Config.INSTANCE.getIngestBatchSize());
+        geometryStage = new GeometryStage(Config.INSTANCE.getGeometryParallelism());
+        serviceTerritory = OutageDataFactory.getServiceTerritory();
+
+        // polygons cached by an earlier run
+        Logger log = Log.getLogger();
+        String polygonCacheFile = Config.INSTANCE.getPolygonCacheFile();
+        if (Config.INSTANCE.isPolygonCacheOn() && !polygonCacheFile.isEmpty()) {
+            try {
+                PolygonCache.load(polygonCacheFile);
+                log.log(Level.INFO, "{0} supply node polygon(s) loaded from the polygon cache. (environment={1})",
+                        new Object[]{PolygonCache.size(), Config.INSTANCE.getEnvironmentLabel()});
+            } catch (IOException | RuntimeException ex) {
+                log.log(Level.WARNING, "Unable to load the polygon cache, starting empty. " + ex.toString()
+                        + " (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+            }
+        }
+
+        // supply node footprints built offline, see FootprintAtlasBuilder
+        String footprintAtlasFile = Config.INSTANCE.getFootprintAtlasFile();
+        if (!footprintAtlasFile.isEmpty()) {
+            try {
+                FootprintAtlas.open(footprintAtlasFile);
+                log.log(Level.INFO, "{0} supply node footprint(s) mapped from the footprint atlas. (environment={1})",
+                        new Object[]{FootprintAtlas.size(), Config.INSTANCE.getEnvironmentLabel()});
+            } catch (IOException | RuntimeException ex) {
+                log.log(Level.WARNING, "Unable to open the footprint atlas, computing all polygons. " + ex.toString()
+                        + " (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+            }
+        }
+    }
+
+    /**
+     * Stops the ingest worker threads that are kept between cycles.
+     */
+    public void shutdown() {
+        ingestPipeline.shutdown();
+        geometryStage.shutdown();
+    }
+
+    /**
+     * Runs one ingest, geometry and output cycle. Output failures are logged
+     * and alerted here, while a failure to read the outage data is thrown.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    public void runCycle() throws IOException, SQLException {
+        Logger log = Log.getLogger();
+        KmlCreator.resetGeneralization();
+        PolygonCache.resetMetrics();
+        FootprintAtlas.resetMetrics();
+        PointRejects.reset();
+
+        // In incremental mode the events are kept between cycles, and only the
+        // customers out changed since the watermark are read.
+        // (the changes are only available from the OMS/NMS database)
+        boolean incremental = Config.INSTANCE.isServiceMode() && Config.INSTANCE.isIncrementalOn()
+                && "oracle".equalsIgnoreCase(Config.INSTANCE.getInputSource());
+        boolean applyChanges = incremental && (residentEvents != null)
+                && (cyclesSinceFullRead < Config.INSTANCE.getIncrementalFullRefreshCycles());
 
         // Events contain OMS/NMS events, which contain supply nodes, which
         // contain customers that are out.
-        EventMap<Long, SupplyNodeMap> events = new EventMap();
-        int recordsRead = 0;
-        int recordsMapped = 0;
-        int recordsOutsideServiceTerritory = 0;
-        int eventCount = 0;
+        EventMap events;
+        Map<Long, EventGeometry> eventGeometries = null; // computed while read, when streamed
+        int recordsRead;
+        int recordsMapped;
+        int recordsOutsideServiceTerritory;
         long databaseStartTime = System.currentTimeMillis();
 
         try {
-            // Get outage dataset
-            OracleResultSet customersOut = OutageDataFactory.getCustomersOut();
-
-            double customerY;
-            double customerX;
-            long eventIdx;
-            int custsByEvent;
-            long supplyIdx;
-
-            DateFormat dateFormat;
-            dateFormat = new SimpleDateFormat("h:mm a, MM/dd");
-
-            // Iterate on outage data points by [event][supply node][customer]
-            while (customersOut.next()) {
-
-                customerY = customersOut.getCHAR("POINT_Y").doubleValue();
-                customerX = customersOut.getCHAR("POINT_X").doubleValue();
-                String cause = customersOut.getCHAR("EVENT_CAUSE").stringValue();
-                String etor = customersOut.getCHAR("EVENT_ETOR_TEXT").stringValue();
-                eventIdx = customersOut.getNUMBER("EVENT_IDX").longValue();
-                custsByEvent = customersOut.getNUMBER("CUSTSBYEVENT").intValue();
-                TIMESTAMP eventBegin = customersOut.getTIMESTAMP("EVENT_BEGIN");
-                TIMESTAMP firstCrewTime = customersOut.getTIMESTAMP("FIRST_CREW_TIME");
-                supplyIdx = customersOut.getNUMBER("SUPPLY_IDX").longValue();
-                recordsRead++;
-
-                String eventBeginText;
-                if (eventBegin != null) {
-                    eventBeginText = dateFormat.format(eventBegin.dateValue());
-                } else {
-                    eventBeginText = "unknown";
-                }
+            if (applyChanges) {
+                events = residentEvents;
+                ResultSet customersChanged = OutageDataFactory.getCustomersChanged(watermark);
+                watermark = deltaIngest.apply(customersChanged, events, serviceTerritory, watermark);
+                cyclesSinceFullRead++;
+                recordsRead = deltaIngest.getRecordsRead();
+                recordsMapped = deltaIngest.getPointsAdded();
+                recordsOutsideServiceTerritory = deltaIngest.getRecordsOutsideServiceTerritory();
+            } else {
+                Timestamp readTime = incremental ? OutageDataFactory.getSourceTimestamp() : null;
+                events = new EventMap();
 
-                String crewDispatched;
-                if (firstCrewTime != null) {
-                    crewDispatched = "Dispatched";
+                if (Config.INSTANCE.isStreamingIngestOn() && !incremental) {
+                    // Read the outage dataset in order, computing each event once read
+                    CustomerSource customersOut = OutageDataFactory.getCustomerSource();
+                    try {
+                        eventGeometries = ingestPipeline.ingestStreaming(customersOut, events, serviceTerritory, geometryStage);
+                    } finally {
+                        customersOut.close();
+                    }
+                } else if ((Config.INSTANCE.getSourceDbPartitions() > 1)
+                        && "oracle".equalsIgnoreCase(Config.INSTANCE.getInputSource())
+                        && Config.INSTANCE.getRecordFile().isEmpty()) {
+                    // Read the outage dataset in partitions, on parallel connections
+                    ingestPipeline.ingestPartitioned(Config.INSTANCE.getSourceDbPartitions(), events, serviceTerritory);
                 } else {
-                    crewDispatched = null;
-                }
-
-                // Add points to events
-                // note: Point takes X, Y ~ lon, lat
-                Point point = ProjectTool.project(new Point(customerX, customerY),
-                        Config.INSTANCE.getInputProjWKID(), Config.INSTANCE.getOutputProjWKID());
+                    // Get outage dataset
+                    CustomerSource customersOut = OutageDataFactory.getCustomerSource();
 
-                if (serviceTerritory.contains(point)) {
+                    // Iterate on outage data points by [event][supply node][customer]
                     try {
-                        events.addPoint(eventIdx, supplyIdx, point, cause, etor,
-                                custsByEvent, eventBeginText, crewDispatched);
-                    } catch (Exception ex) {
-                        log.log(Level.INFO, "Point for supply node " + supplyIdx + " dropped. " + ex.getMessage());
+                        ingestPipeline.ingest(customersOut, events, serviceTerritory);
+                    } finally {
+                        customersOut.close();
                     }
-                    recordsMapped++;
-                } else {
-                    recordsOutsideServiceTerritory++;
-                    log.log(Level.INFO, "The following point is outside the service territory {0} (environment={1})",
-                            new Object[]{point, Config.INSTANCE.getEnvironmentLabel()});
                 }
-            }
-
-            OutageDataFactory.closeDatabaseConnection();
+                recordsRead = ingestPipeline.getRecordsRead();
+                recordsMapped = ingestPipeline.getRecordsMapped();
+                recordsOutsideServiceTerritory = ingestPipeline.getRecordsOutsideServiceTerritory();
 
-        } catch (IOException ex) {
-            log.log(Level.SEVERE, ex.toString());
-            log.log(Level.SEVERE, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
-            Log.closeLogger();
-            try {
-                EmailAlertSender.send("FAILURE: Outage Map", "Unable to read outage map database. " + ex.toString());
-            } catch (Exception ex1) {
-                System.out.println(ex1);
+                if (incremental) {
+                    residentEvents = events;
+                    watermark = readTime;
+                    cyclesSinceFullRead = 0;
+                }
             }
-            System.exit(1);
-        } catch (SQLException ex) {
-            log.log(Level.SEVERE, ex.toString());
-            log.log(Level.SEVERE, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
-            Log.closeLogger();
-            try {
-                EmailAlertSender.send("FAILURE: Outage Map", "Unable to read outage map database. " + ex.toString());
-            } catch (Exception ex1) {
-                System.out.println(ex1);
+        } catch (IOException | SQLException | RuntimeException ex) {
+            residentEvents = null; // the events may be partly updated, read all on the next cycle
+            throw ex;
+        } finally {
+            if (Config.INSTANCE.isServiceMode()) {
+                OutageDataFactory.closeCustomersOut(); // keep the connection for the next cycle
+            } else {
+                OutageDataFactory.closeDatabaseConnection();
             }
-            System.exit(1);
         }
 
         // Provide database input data metrics
@@ -185,21 +307,52 @@ public class OutageMapCreator {
                 new Object[]{recordsRead, databaseFinishTime, Config.INSTANCE.getEnvironmentLabel()});
 
         // Provide mapped data metrics 
-        Iterator<Long> eventKeyItr = events.keySet().iterator();
-        Long eventKey;
-        int supplyNodeCount = 0;
-        while (eventKeyItr.hasNext()) {
-            eventKey = eventKeyItr.next();
-            supplyNodeCount += ((SupplyNodeMap) events.get(eventKey)).size();
-        }
+        int supplyNodeCount = events.getSupplyNodeCount();
         log.log(Level.INFO, "Input processing metrics: {0} geographic points mapped to {1} supply node(s) and {2} event(s); "
                 + " {3} points lied outside service territory. (environment={4})",
                 new Object[]{recordsMapped, supplyNodeCount, events.size(),
                     recordsOutsideServiceTerritory, Config.INSTANCE.getEnvironmentLabel()});
+        PointRejects.logSummary();
+
+        // Compute the event polygons, before and apart from the output, which only reads them
+        long geometryStartTime = System.currentTimeMillis();
+        if (eventGeometries == null) {
+            eventGeometries = geometryStage.compute(events);
+        }
+        int polygonCount = 0;
+        for (EventGeometry eventGeometry : eventGeometries.values()) {
+            polygonCount += eventGeometry.getPolygonCount();
+        }
+        log.log(Level.INFO, "Geometry metric: {0} polygon(s) computed for {1} event(s) in {2} milliseconds on {3} thread(s); "
+                + "the slowest event, {4}, took {5} milliseconds. (environment={6})",
+                new Object[]{polygonCount, events.size(), System.currentTimeMillis() - geometryStartTime,
+                    geometryStage.getParallelism(), Long.toString(geometryStage.getSlowestEventIdx()),
+                    geometryStage.getSlowestEventNanos() / 1000000L, Config.INSTANCE.getEnvironmentLabel()});
+        if (FootprintAtlas.isOpen()) {
+            log.log(Level.INFO, "Footprint atlas metric: {0} supply node polygon(s) taken from the atlas. (environment={1})",
+                    new Object[]{FootprintAtlas.getFootprintsUsed(), Config.INSTANCE.getEnvironmentLabel()});
+        }
+        if (Config.INSTANCE.isPolygonCacheOn()) {
+            int polygonCacheHits = PolygonCache.getHits();
+            int polygonCacheLookups = polygonCacheHits + PolygonCache.getMisses();
+            log.log(Level.INFO, "Polygon cache metric: {0} hit(s) and {1} miss(es) of supply node polygons, "
+                    + "a {2,number,percent} hit rate; {3} polygon(s) cached. (environment={4})",
+                    new Object[]{polygonCacheHits, PolygonCache.getMisses(),
+                        (polygonCacheLookups > 0) ? (double) polygonCacheHits / polygonCacheLookups : 0.0,
+                        PolygonCache.size(), Config.INSTANCE.getEnvironmentLabel()});
+            if (!Config.INSTANCE.getPolygonCacheFile().isEmpty()) {
+                try {
+                    PolygonCache.save(Config.INSTANCE.getPolygonCacheFile());
+                } catch (IOException ex) {
+                    log.log(Level.WARNING, "Unable to save the polygon cache. " + ex.toString()
+                            + " (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+                }
+            }
+        }
 
         if (Config.INSTANCE.isOutputToKml()) {
             try {
-                KmlCreator.createKml(events, applicationPath);
+                KmlCreator.createKml(events, eventGeometries, applicationPath);
             } catch (IOException ex) {
                 log.log(Level.SEVERE, null, ex);
                 try {
@@ -215,7 +368,7 @@ public class OutageMapCreator {
         
         if (Config.INSTANCE.isOutputToGeoDb()) {
             try {
-                FeatureClassWriter.writeFeatureClass(events);
+                FeatureClassWriter.writeFeatureClass(events, eventGeometries);
             } catch (IOException ex) {
                 log.log(Level.SEVERE, null, ex);
                 try {
@@ -232,12 +385,6 @@ public class OutageMapCreator {
                 }
             }
         }
-
-        log.log(Level.INFO, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
-        Log.closeLogger();
-
-        System.out.println("Exiting successfully.");
-        System.exit(0);
     }
 
 }
@@ -0,0 +1,160 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the outage map creator as a resident service, which refreshes the
+ * outage map at the configured interval. Database connections, ingest worker
+ * threads and warmed code are kept between refresh cycles, and a cycle is
+ * skipped while the previous cycle is still running.
+ *
+ * @author jstewart
+ */
+public class OutageMapService {
+
+    private static final long STOP_TIMEOUT_SECONDS = 120;
+
+    private final OutageMapCreator outageMapCreator;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService cycleRunner;
+    private final AtomicBoolean cycleRunning;
+    private final CountDownLatch stopped;
+    private final AtomicInteger cyclesRun;
+    private final AtomicInteger cyclesSkipped;
+
+    /**
+     * Initializes the service.
+     *
+     * @param outageMapCreator the outage map creator that runs each cycle
+     */
+    public OutageMapService(OutageMapCreator outageMapCreator) {
+        this.outageMapCreator = outageMapCreator;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        cycleRunner = Executors.newSingleThreadExecutor();
+        cycleRunning = new AtomicBoolean(false);
+        stopped = new CountDownLatch(1);
+        cyclesRun = new AtomicInteger();
+        cyclesSkipped = new AtomicInteger();
+    }
+
+    /**
+     * Schedules the refresh cycles and blocks until the service is stopped,
+     * which happens when the JVM is shut down.
+     */
+    public void run() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                OutageMapService.this.stop();
+            }
+        }, "outagemap-shutdown"));
+
+        try {
+            Log.getLogger().log(Level.INFO, "Service started, refreshing every {0} second(s). (environment={1})",
+                    new Object[]{Config.INSTANCE.getRefreshIntervalSeconds(), Config.INSTANCE.getEnvironmentLabel()});
+        } catch (IOException ex) {
+            System.out.println(ex);
+        }
+
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                OutageMapService.this.startCycle();
+            }
+        }, 0, Config.INSTANCE.getRefreshIntervalSeconds(), TimeUnit.SECONDS);
+
+        try {
+            stopped.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops scheduling, waits for a running cycle to complete and then
+     * closes the database connections and the log.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        cycleRunner.shutdown();
+        try {
+            cycleRunner.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        outageMapCreator.shutdown();
+
+        try {
+            OutageDataFactory.closeDatabaseConnection();
+            FeatureClassWriter.closeDatabaseConnection();
+            Logger log = Log.getLogger();
+            log.log(Level.INFO, "Service stopped after {0} cycle(s), {1} cycle(s) skipped. (environment={2})",
+                    new Object[]{cyclesRun.get(), cyclesSkipped.get(), Config.INSTANCE.getEnvironmentLabel()});
+            log.log(Level.INFO, "Closing logging session. (environment={0})", Config.INSTANCE.getEnvironmentLabel());
+            Log.closeLogger();
+        } catch (IOException ex) {
+            System.out.println(ex);
+        }
+        stopped.countDown();
+    }
+
+    // Hands a cycle to the cycle runner, unless the previous cycle is still running.
+    private void startCycle() {
+        if (!cycleRunning.compareAndSet(false, true)) {
+            cyclesSkipped.incrementAndGet();
+            try {
+                Log.getLogger().log(Level.WARNING, "Refresh cycle skipped, the previous cycle is still running. (environment={0})",
+                        Config.INSTANCE.getEnvironmentLabel());
+            } catch (IOException ex) {
+                System.out.println(ex);
+            }
+            return;
+        }
+        cycleRunner.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutageMapService.this.runCycle();
+                } finally {
+                    cycleRunning.set(false);
+                }
+            }
+        });
+    }
+
+    // Runs one cycle, logging its latency; failures are alerted and the service continues.
+    private void runCycle() {
+        long cycleStartTime = System.currentTimeMillis();
+        try {
+            Log.rollOver();
+            Logger log = Log.getLogger();
+            try {
+                outageMapCreator.runCycle();
+                long cycleTime = System.currentTimeMillis() - cycleStartTime;
+                log.log(Level.INFO, "Service metric: refresh cycle {0} completed in {1} milliseconds. (environment={2})",
+                        new Object[]{cyclesRun.incrementAndGet(), cycleTime, Config.INSTANCE.getEnvironmentLabel()});
+            } catch (IOException | SQLException | RuntimeException ex) {
+                log.log(Level.SEVERE, ex.toString());
+                // reconnect on the next cycle
+                OutageDataFactory.closeDatabaseConnection();
+                try {
+                    EmailAlertSender.send("FAILURE: Outage Map", "Unable to refresh outage map. " + ex.toString());
+                } catch (Exception ex1) {
+                    System.out.println(ex1);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("ERROR: unable to log refresh cycle. " + ex.getMessage());
+        }
+    }
+}
@@ -1,74 +1,297 @@
 package scl.oms.outagemap;
 
-import com.esri.core.geometry.Bufferer;
-import com.esri.core.geometry.Geometry;
-import com.esri.core.geometry.GeometryEngine;
-import com.esri.core.geometry.Line;
-import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.OperatorBuffer;
+import com.esri.core.geometry.OperatorDensifyByLength;
 import com.esri.core.geometry.Point;
 import com.esri.core.geometry.Polygon;
-import com.esri.core.geometry.Polyline;
 import com.esri.core.geometry.SpatialReference;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Arrays;
 
 /**
  * The class represents the points for an individual supply node (i.e.
  * transformer)
  *
+ * The points are held as packed x, y coordinates in the order added, rather
+ * than as Point objects. Points are snapped to the pointSnapDegrees grid, and
+ * a point already held, such as another meter of the same building, found by
+ * a hash of its coordinates, only adds to that point's count of customers, so
+ * the hull is computed from the distinct points while the counts and label
+ * point are of the customers. The convex hull is kept as the points are
+ * added: a point within the hull is found in O(log h) and leaves the hull,
+ * and so the cached polygon, unchanged, while a point outside is merged into
+ * the hull (monotone chain). The hull is recomputed from all points after a
+ * removal. The hull is buffered by ConvexBuffer, or by the general
+ * OperatorBuffer when the convexBufferOn is false. If the polygonCacheOn, a
+ * supply node whose customers are unchanged takes its polygon from the
+ * PolygonCache instead, and a supply node with most of its served customers
+ * out takes its footprint from the FootprintAtlas, if one is open.
+ *
  * @author stewarjd
- * @param <E> Points
  */
-public class PointQueue<E> extends ConcurrentLinkedQueue {
+public class PointQueue {
+
+    private static final int INITIAL_CAPACITY = 8; // points
+    private static final int INSERTION_SORT_SIZE = 16; // points
+    private static final int SCANNED_POINTS = 8; // distinct points searched in turn, beyond which they are indexed
+
+    /**
+     * The SUPPLY_IDX of a point queue that is not cached.
+     */
+    public static final long NO_SUPPLY_IDX = Long.MIN_VALUE;
+
+    /**
+     * The outcomes of adding a point.
+     */
+    public enum Added {
+
+        REJECTED, // further than the max supply node point distance, and not added
+        POLYGON_KEPT, // added, and the polygon is unchanged
+        POLYGON_CHANGED // added, and the polygon is out of date
+    }
+
+    /**
+     * The outcomes of removing a point.
+     */
+    public enum Removed {
+
+        NOT_FOUND, // not held, and nothing removed
+        POLYGON_KEPT, // removed, and the polygon is unchanged
+        POLYGON_CHANGED // removed, and the polygon is out of date
+    }
 
     private static double expandY;
     private static double expandX;
+    private static double snapStep; // zero to snap nothing
 
+    private final long supplyIdx;
+    private double[] coordinates; // x, y of each distinct point, snapped
+    private int[] weights; // customers at each distinct point
+    private int distinctCount;
+    private int[] pointIndex; // position + 1 of the distinct points by hash, 0 if empty, null while scanned
+    private int pointCount; // customers
+    private long pointHashSum; // see PolygonCache.hashPoint(x, y)
+    private double[] hull; // x, y of each hull vertex, counter-clockwise
+    private int hullCount;
+    private boolean hullValid; // false once a point has been removed
     private Point labelPoint;
-    private boolean modifiedFlag; // used to synchronize updates
+    private boolean modifiedFlag; // true once the polygon is out of date, guarded by this queue
+    private boolean released; // true once the points are dropped, leaving the polygon
     private Polygon thisPolygon;
 
     /**
-     * Initializes queue.
+     * Initializes queue, which is not cached.
      */
     public PointQueue() {
-        super();
+        this(NO_SUPPLY_IDX);
+    }
+
+    /**
+     * Initializes queue.
+     *
+     * @param supplyIdx OMS/NMS SUPPLY_IDX, which keys the polygon cache and
+     * the footprint atlas
+     */
+    public PointQueue(long supplyIdx) {
+        this.supplyIdx = supplyIdx;
+        coordinates = new double[2 * INITIAL_CAPACITY];
+        weights = new int[INITIAL_CAPACITY];
+        distinctCount = 0;
+        pointCount = 0;
+        hull = new double[0];
+        hullCount = 0;
+        hullValid = true;
         labelPoint = new Point();
         modifiedFlag = true;
 
-        expandX = Config.INSTANCE.getPointExpandDegrees();
-        if (Config.INSTANCE.getOutputProjWKID() == 4326) {
+        expandX = Config.INSTANCE.getPointExpandDegrees() * Config.INSTANCE.getGeometryUnitsPerDegree();
+        if (Config.INSTANCE.getGeometryProjWKID() == 4326) {
             double centerY = Config.INSTANCE.getServiceEnvelope().getCenterY();
             double latInRadians = Math.toRadians(centerY);
             expandY = Config.INSTANCE.getPointExpandDegrees() * Math.cos(latInRadians);
         } else {
-            expandY = Config.INSTANCE.getPointExpandDegrees();
+            expandY = expandX; // planar, or as configured
         }
+        snapStep = Config.INSTANCE.getPointSnapDegrees() * Config.INSTANCE.getGeometryUnitsPerDegree();
     }
 
     /**
      * Adds a point to the supply node.
      *
      * @param point Point to add.
-     * @throws Exception When a point added is further away then the max supply nod distance
+     * @return REJECTED if the point is further from the label point than the
+     * max supply node point distance, in which case it is not added, else
+     * whether the polygon is out of date
+     */
+    public Added addPoint(Point point) {
+        return this.addPoint(point.getX(), point.getY());
+    }
+
+    /**
+     * Adds a point to the supply node.
+     *
+     * @param x the x coordinate of the point to add
+     * @param y the y coordinate of the point to add
+     * @return REJECTED if the point is further from the label point than the
+     * max supply node point distance, in which case it is not added, else
+     * whether the polygon is out of date
      */
-    public void addPoint(Point point) throws Exception {
+    public synchronized Added addPoint(double x, double y) {
+        if (released) {
+            throw new IllegalStateException("Point added to supply node " + supplyIdx + " once its points were released.");
+        }
         // check to see if the added point is within an acceptable distance
-        if (this.size() > 0) {
-            double distFromLabelPt = GeometryEngine.distance(labelPoint, point, null);
-            if (distFromLabelPt > Config.INSTANCE.getMaxSupplyNodePointDist()) {
-                throw new Exception("Point exceeded max supply noded distance. Distance = " + distFromLabelPt);
+        if (pointCount > 0) {
+            double distX = x - labelPoint.getX();
+            double distY = y - labelPoint.getY();
+            double maxDist = Config.INSTANCE.getMaxSupplyNodePointDist() * Config.INSTANCE.getGeometryUnitsPerDegree();
+            if (distX * distX + distY * distY > maxDist * maxDist) {
+                return Added.REJECTED;
             }
             // labelPoint is weighted on the number of customers, not geographic center
-            labelPoint.setX(labelPoint.getX() + (point.getX() - labelPoint.getX()) / this.size());
-            labelPoint.setY(labelPoint.getY() + (point.getY() - labelPoint.getY()) / this.size());
+            labelPoint.setX(labelPoint.getX() + distX / pointCount);
+            labelPoint.setY(labelPoint.getY() + distY / pointCount);
         } else {
-            labelPoint.setX(point.getX());
-            labelPoint.setY(point.getY());
+            labelPoint.setX(x);
+            labelPoint.setY(y);
+        }
+
+        x = PointQueue.snap(x);
+        y = PointQueue.snap(y);
+        pointCount++;
+        pointHashSum += PolygonCache.hashPoint(x, y);
+        if (this.crossesFootprintThreshold(pointCount - 1)) {
+            modifiedFlag = true; // the polygon becomes the footprint, even if the hull is kept
+        }
+
+        // a point held already is within the hull, and only adds to its count
+        boolean inHull = hullValid && PointQueue.isInHull(hull, hullCount, x, y);
+        if (inHull || !hullValid) {
+            int held = this.findPoint(x, y);
+            if (held >= 0) {
+                weights[held]++;
+                return modifiedFlag ? Added.POLYGON_CHANGED : Added.POLYGON_KEPT;
+            }
+        }
+
+        if (distinctCount == weights.length) {
+            coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+            weights = Arrays.copyOf(weights, 2 * weights.length);
+        }
+        coordinates[2 * distinctCount] = x;
+        coordinates[2 * distinctCount + 1] = y;
+        weights[distinctCount] = 1;
+        distinctCount++;
+        if ((pointIndex != null) && (2 * distinctCount <= pointIndex.length)) {
+            this.indexPoint(distinctCount - 1);
+        } else if (distinctCount > SCANNED_POINTS) {
+            this.indexPoints();
+        }
+
+        // a point within the hull leaves the polygon unchanged
+        if (inHull) {
+            return modifiedFlag ? Added.POLYGON_CHANGED : Added.POLYGON_KEPT;
+        }
+        if (hullValid) {
+            double[] points = Arrays.copyOf(hull, 2 * (hullCount + 1));
+            points[2 * hullCount] = x;
+            points[2 * hullCount + 1] = y;
+            hullCount = PointQueue.computeHull(points, hullCount + 1);
+            hull = points;
         }
+        modifiedFlag = true; // set true after every point added outside of the hull
+        return Added.POLYGON_CHANGED;
+    }
+
+    /**
+     * Removes a point from the supply node, such as when a customer has been
+     * restored. The label point is recomputed from the remaining points, as
+     * snapped.
+     *
+     * @param point Point to remove, matched on its snapped coordinates.
+     * @return NOT_FOUND if the point is not held, else whether the polygon is
+     * out of date
+     */
+    public synchronized Removed removePoint(Point point) {
+        if (released) {
+            return Removed.NOT_FOUND;
+        }
+        double x = PointQueue.snap(point.getX());
+        double y = PointQueue.snap(point.getY());
+        int i = this.findPoint(x, y);
+        if (i < 0) {
+            return Removed.NOT_FOUND;
+        }
+        pointCount--;
+        pointHashSum -= PolygonCache.hashPoint(x, y);
+        if (this.crossesFootprintThreshold(pointCount + 1)) {
+            modifiedFlag = true; // the polygon is no longer the footprint
+        }
+        if (--weights[i] == 0) {
+            System.arraycopy(coordinates, 2 * (i + 1), coordinates, 2 * i, 2 * (distinctCount - i - 1));
+            System.arraycopy(weights, i + 1, weights, i, distinctCount - i - 1);
+            distinctCount--;
+            this.indexPoints(); // the points that follow have moved
+            // only a hull vertex changes the hull, and a customer left at the
+            // same point, or a point within the hull, leaves the polygon unchanged
+            if (!hullValid || PointQueue.isHullVertex(hull, hullCount, x, y)) {
+                hullValid = false;
+                modifiedFlag = true;
+            }
+        }
+
+        // recompute the label point as the points would have been added, each
+        // distinct point once per customer
+        int j = 0;
+        for (int k = 0; k < distinctCount; k++) {
+            for (int w = 0; w < weights[k]; w++, j++) {
+                if (j > 0) {
+                    labelPoint.setX(labelPoint.getX() + (coordinates[2 * k] - labelPoint.getX()) / j);
+                    labelPoint.setY(labelPoint.getY() + (coordinates[2 * k + 1] - labelPoint.getY()) / j);
+                } else {
+                    labelPoint.setX(coordinates[0]);
+                    labelPoint.setY(coordinates[1]);
+                }
+            }
+        }
+        return modifiedFlag ? Removed.POLYGON_CHANGED : Removed.POLYGON_KEPT;
+    }
+
+    /**
+     * Computes the polygon, if it is out of date, and then drops the points,
+     * once all of them have been added. The polygon, label point and point
+     * count are kept, but no points may be added or removed.
+     */
+    public synchronized void releasePoints() {
+        this.getPolygon();
+        coordinates = new double[0];
+        weights = new int[0];
+        distinctCount = 0;
+        pointIndex = null;
+        hull = new double[0];
+        hullCount = 0;
+        released = true;
+    }
+
+    /**
+     * @return the number of points in the supply node
+     */
+    public synchronized int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return the number of distinct points in the supply node, from which
+     * the hull is computed
+     */
+    public synchronized int getDistinctPointCount() {
+        return distinctCount;
+    }
 
-        super.add(point);
-        modifiedFlag = true; // set true after every point added
+    /**
+     * @return true if the supply node has no points
+     */
+    public synchronized boolean isEmpty() {
+        return pointCount == 0;
     }
 
     /**
@@ -77,93 +300,84 @@ public class PointQueue<E> extends ConcurrentLinkedQueue {
      *
      * @return The supply node polygon.
      */
-    public Polygon getPolygon() {
+    public synchronized Polygon getPolygon() {
         if (modifiedFlag == false) {
             return thisPolygon;
         }
 
-        if (this.size() == 0) {
+        if (pointCount == 0) {
             return null; // consider throwing an exception instead of this
         }
 
-        MultiPoint multipointGeometry = new MultiPoint();
+        // most of the served customers out, the polygon is the supply node's footprint
+        if ((supplyIdx != NO_SUPPLY_IDX) && FootprintAtlas.isOpen()) {
+            Polygon footprint = FootprintAtlas.getFootprint(supplyIdx, pointCount);
+            if (footprint != null) {
+                thisPolygon = footprint;
+                modifiedFlag = false;
+                return thisPolygon;
+            }
+        }
 
-        // create a multi point geometry
-        Iterator<Point> pointItr = this.iterator();
-        while (pointItr.hasNext()) {
-            Point point = pointItr.next();
-            multipointGeometry.add(point);
+        long fingerprint = 0;
+        boolean cached = (supplyIdx != NO_SUPPLY_IDX) && PolygonCache.isEnabled();
+        if (cached) {
+            fingerprint = PolygonCache.getFingerprint(pointHashSum, pointCount);
+            Polygon cachedPolygon = PolygonCache.get(supplyIdx, fingerprint);
+            if (cachedPolygon != null) {
+                thisPolygon = cachedPolygon;
+                modifiedFlag = false;
+                return thisPolygon;
+            }
         }
 
-        Geometry convexHullGeometry = GeometryEngine.convexHull(multipointGeometry);
+        if (!hullValid) {
+            // the hull is computed on a copy, as the points are kept in the order added
+            hull = Arrays.copyOf(coordinates, 2 * distinctCount);
+            hullCount = PointQueue.computeHull(hull, distinctCount);
+            hullValid = true;
+        }
 
-        Polygon unbufferedPolygon = null;
-        switch (convexHullGeometry.getType()) {
-            case Point:
-                Point point = (Point) convexHullGeometry;
-                unbufferedPolygon = PointQueue.getPolygonFrom1Point(point);
-                break;
-            case Line:
-                Line line = (Line) convexHullGeometry;
-                Point startPoint = new Point(line.getStartX(), line.getStartY());
-                Point endPoint = new Point(line.getEndX(), line.getEndY());
-                unbufferedPolygon = PointQueue.getPolygonFrom2Points(startPoint, endPoint);
-                break;
-            case MultiPoint:
-                MultiPoint multiPoint = (MultiPoint) convexHullGeometry;
-                switch (multiPoint.getPointCount()) {
-                    case 1:
-                        Point p = (Point) multiPoint.getPoint(0);
-                        unbufferedPolygon = PointQueue.getPolygonFrom1Point(p);
-                        break;
-                    case 2:
-                        Point a = (Point) multiPoint.getPoint(0);
-                        Point b = (Point) multiPoint.getPoint(1);
-                        unbufferedPolygon = PointQueue.getPolygonFrom2Points(a, b);
-                        break;
-                    default:
-                        return null; // Multipoint with more than 2 points not found in dev
-                }
+        // the convex polygon to buffer, counter-clockwise
+        double[] convex;
+        switch (hullCount) {
+            case 1:
+                convex = PointQueue.getPolygonFrom1Point(hull[0], hull[1]);
                 break;
-            case Polygon:
-                unbufferedPolygon = (Polygon) convexHullGeometry;
-                if (unbufferedPolygon.getPathCount() > 1) {
-                    // note: this case not detected in dev
-                    System.out.println("ARGH!!!!: you need to trim inside paths.");
-                }
-                if (unbufferedPolygon.calculateArea2D() == 0.0) {
-                    unbufferedPolygon = PointQueue.getPolygonFrom1Point(unbufferedPolygon.getPoint(0));
-                }
-                break;
-            case Polyline:
-                Polyline polyline = (Polyline) convexHullGeometry;
-                switch (polyline.getPointCount()) {
-                    case 1:
-                        Point p = (Point) polyline.getPoint(0);
-                        unbufferedPolygon = PointQueue.getPolygonFrom1Point(p);
-                        break;
-                    case 2:
-                        Point a = (Point) polyline.getPoint(0);
-                        Point b = (Point) polyline.getPoint(1);
-                        unbufferedPolygon = PointQueue.getPolygonFrom2Points(a, b);
-                        break;
-                    default:
-                        return null; // Polyline with more than 2 points not found in dev
-                }
+            case 2:
+                convex = PointQueue.getPolygonFrom2Points(hull[0], hull[1], hull[2], hull[3]);
                 break;
             default:
-                System.out.println("PointQueue.getPolygon().convexHullGeometry.getType() isn't understood, equals" + convexHullGeometry.getType());
-                return null; // no other known Geometry types
+                convex = hull;
+                if (PointQueue.getArea(hull, hullCount) == 0.0) {
+                    convex = PointQueue.getPolygonFrom1Point(hull[0], hull[1]);
+                }
         }
+        int convexCount = (convex == hull) ? hullCount : convex.length / 2;
 
         if (Config.INSTANCE.isBufferOn()) {
 
-            SpatialReference sr = SpatialReference.create(Config.INSTANCE.getOutputProjWKID());
-            thisPolygon = (Polygon) Bufferer.buffer(unbufferedPolygon, Config.INSTANCE.getBufferDistDegrees(),
-                    sr, Config.INSTANCE.getDensifyDistDegrees(),
-                    Config.INSTANCE.getDensifyMaxVertices(), null);
+            // distances are configured in degrees, and converted when the geometry is planar
+            double unitsPerDegree = Config.INSTANCE.getGeometryUnitsPerDegree();
+            if (Config.INSTANCE.isConvexBufferOn() && (convexCount >= 3)) {
+                thisPolygon = ConvexBuffer.buffer(convex, convexCount, Config.INSTANCE.getBufferDistDegrees() * unitsPerDegree,
+                        Config.INSTANCE.getDensifyMaxVertices());
+            } else {
+                SpatialReference sr = SpatialReference.create(Config.INSTANCE.getGeometryProjWKID());
+                double bufferDist = Config.INSTANCE.getBufferDistDegrees() * unitsPerDegree;
+                Polygon buffered = (Polygon) OperatorBuffer.local().execute(PointQueue.toPolygon(convex, convexCount),
+                        sr, bufferDist, null);
+                // densified by the densifyDistDegrees, with no more than the
+                // densifyMaxVertices on the circumference of a full circle
+                double densifyDist = Math.max(Config.INSTANCE.getDensifyDistDegrees() * unitsPerDegree,
+                        2.0 * Math.PI * bufferDist / Math.max(1, Config.INSTANCE.getDensifyMaxVertices()));
+                thisPolygon = (Polygon) OperatorDensifyByLength.local().execute(buffered, densifyDist, null);
+            }
         } else {
-            thisPolygon = unbufferedPolygon;
+            thisPolygon = PointQueue.toPolygon(convex, convexCount);
+        }
+        if (cached) {
+            PolygonCache.put(supplyIdx, fingerprint, thisPolygon);
         }
 
         modifiedFlag = false; // set false after every update
@@ -174,40 +388,293 @@ public class PointQueue<E> extends ConcurrentLinkedQueue {
      * Provides a point for a label of the supply node, which is weighted on the
      * average customer location, not the average geographical location.
      *
-     * Note that the label location is computed and set during the .getPolygon()
-     * method and remains unchanged as long as no new points are added.
+     * Note that the label location moves as each point is added or removed.
+     *
+     * @return a copy of the label point, at the centroid of the supply node's
+     * points
+     */
+    public synchronized Point getLabelPoint() {
+        return new Point(labelPoint.getX(), labelPoint.getY());
+    }
+
+    // True if the change from a count of customers to the present one moves
+    // the supply node across the footprintAtlasThreshold.
+    private boolean crossesFootprintThreshold(int previousPointCount) {
+        return (supplyIdx != NO_SUPPLY_IDX) && FootprintAtlas.isOpen()
+                && FootprintAtlas.crossesThreshold(supplyIdx, previousPointCount, pointCount);
+    }
+
+    // The position of a distinct point, or -1 if it is not held. A few points
+    // are searched from the last added, and more are found by the index.
+    private int findPoint(double x, double y) {
+        if (pointIndex == null) {
+            for (int i = distinctCount - 1; i >= 0; i--) {
+                if ((coordinates[2 * i] == x) && (coordinates[2 * i + 1] == y)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = pointIndex.length - 1;
+        for (int slot = PointQueue.hashPoint(x, y) & mask; pointIndex[slot] != 0; slot = (slot + 1) & mask) {
+            int i = pointIndex[slot] - 1;
+            if ((coordinates[2 * i] == x) && (coordinates[2 * i + 1] == y)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Rebuilds the index of the distinct points, at most half full, or drops it
+    // when few enough points are held to be searched in turn.
+    private void indexPoints() {
+        if (distinctCount <= SCANNED_POINTS) {
+            pointIndex = null;
+            return;
+        }
+        int capacity = 4 * SCANNED_POINTS;
+        while (capacity < 4 * distinctCount) {
+            capacity <<= 1;
+        }
+        pointIndex = new int[capacity];
+        for (int i = 0; i < distinctCount; i++) {
+            this.indexPoint(i);
+        }
+    }
+
+    // Adds a distinct point to the index (open addressing, linear probing).
+    private void indexPoint(int i) {
+        int mask = pointIndex.length - 1;
+        int slot = PointQueue.hashPoint(coordinates[2 * i], coordinates[2 * i + 1]) & mask;
+        while (pointIndex[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        pointIndex[slot] = i + 1;
+    }
+
+    // Hashes the bits of a point, with -0.0 taken as 0.0 as they are equal.
+    private static int hashPoint(double x, double y) {
+        long h = Double.doubleToLongBits(x + 0.0) * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(y + 0.0);
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Snaps a coordinate to the pointSnapDegrees grid, if any.
+    private static double snap(double value) {
+        return (snapStep > 0.0) ? Math.round(value / snapStep) * snapStep : value;
+    }
+
+    // Creates a small diamond centered on a single point, as a hull.
+    private static double[] getPolygonFrom1Point(double x, double y) {
+        double[] diamond = {
+            x + expandX, y,
+            x - expandX, y,
+            x, y + expandY,
+            x, y - expandY};
+        return Arrays.copyOf(diamond, 2 * PointQueue.computeHull(diamond, 4));
+    }
+
+    // Adds a small diamond centered on the midpoint between two points, as a hull.
+    private static double[] getPolygonFrom2Points(double aX, double aY, double bX, double bY) {
+        double midPointX = (aX + bX) / 2.0;
+        double midPointY = (aY + bY) / 2.0;
+        double[] points = {
+            aX, aY,
+            midPointX + expandX, midPointY,
+            midPointX - expandX, midPointY,
+            midPointX, midPointY + expandY,
+            midPointX, midPointY - expandY,
+            bX, bY};
+        return Arrays.copyOf(points, 2 * PointQueue.computeHull(points, 6));
+    }
+
+    // Creates a polygon of a hull, which is counter-clockwise, as a clockwise
+    // (outer) ring.
+    private static Polygon toPolygon(double[] hull, int hullCount) {
+        Polygon polygon = new Polygon();
+        polygon.startPath(hull[2 * (hullCount - 1)], hull[2 * (hullCount - 1) + 1]);
+        for (int i = hullCount - 2; i >= 0; i--) {
+            polygon.lineTo(hull[2 * i], hull[2 * i + 1]);
+        }
+        return polygon;
+    }
+
+    // The area of a hull (shoelace formula).
+    private static double getArea(double[] hull, int hullCount) {
+        double area = 0.0;
+        for (int i = 0; i < hullCount; i++) {
+            int j = (i + 1 < hullCount) ? i + 1 : 0;
+            area += hull[2 * i] * hull[2 * j + 1] - hull[2 * i + 1] * hull[2 * j];
+        }
+        return area / 2.0;
+    }
+
+    /**
+     * Computes the convex hull of packed x, y coordinates (Andrew's monotone
+     * chain), in place. The hull replaces the first coordinates, counter-
+     * clockwise and without collinear vertices; a single point, or the two
+     * ends of collinear points, are the degenerate hulls.
      *
-     * @return If the getPolygon method had been previously called, then a Point
-     * at the centroid of the supply node, else a null value.
+     * @param xy the x, y coordinates of the points, which are reordered
+     * @param count the number of points
+     * @return the number of hull vertices
      */
-    public Point getLabelPoint() {
-        if (labelPoint == null) {
-            this.getPolygon();
-        }
-        return labelPoint;
-    }
-
-    // Creates a small diamond polygon centered on a single point.
-    private static Polygon getPolygonFrom1Point(Point point) {
-        MultiPoint multipointGeometry = new MultiPoint();
-        multipointGeometry.add(new Point(point.getX() + expandX, point.getY()));
-        multipointGeometry.add(new Point(point.getX() - expandX, point.getY()));
-        multipointGeometry.add(new Point(point.getX(), point.getY() + expandY));
-        multipointGeometry.add(new Point(point.getX(), point.getY() - expandY));
-        return (Polygon) GeometryEngine.convexHull(multipointGeometry);
-    }
-
-    // Adds a small diamond centered on the midpoint between two points.
-    private static Polygon getPolygonFrom2Points(Point a, Point b) {
-        double midPointX = (a.getX() + b.getX()) / 2.0;
-        double midPointY = (a.getY() + b.getY()) / 2.0;
-        MultiPoint multipointGeometry = new MultiPoint();
-        multipointGeometry.add(a);
-        multipointGeometry.add(new Point(midPointX + expandX, midPointY));
-        multipointGeometry.add(new Point(midPointX - expandX, midPointY));
-        multipointGeometry.add(new Point(midPointX, midPointY + expandY));
-        multipointGeometry.add(new Point(midPointX, midPointY - expandY));
-        multipointGeometry.add(b);
-        return (Polygon) GeometryEngine.convexHull(multipointGeometry);
+    static int computeHull(double[] xy, int count) {
+        PointQueue.sortPoints(xy, 0, count);
+
+        // drop duplicate points, which are then neighbors
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if ((distinct == 0) || (xy[2 * i] != xy[2 * (distinct - 1)]) || (xy[2 * i + 1] != xy[2 * (distinct - 1) + 1])) {
+                xy[2 * distinct] = xy[2 * i];
+                xy[2 * distinct + 1] = xy[2 * i + 1];
+                distinct++;
+            }
+        }
+        if (distinct < 3) {
+            return distinct;
+        }
+
+        // the lower and upper chains, written to a scratch array as the sorted
+        // points are still needed for the upper chain
+        double[] chain = new double[2 * (2 * distinct)];
+        int hullCount = 0;
+        for (int i = 0; i < distinct; i++) {
+            while ((hullCount >= 2) && (PointQueue.cross(chain, hullCount, xy[2 * i], xy[2 * i + 1]) <= 0.0)) {
+                hullCount--;
+            }
+            chain[2 * hullCount] = xy[2 * i];
+            chain[2 * hullCount + 1] = xy[2 * i + 1];
+            hullCount++;
+        }
+        int lowerCount = hullCount + 1;
+        for (int i = distinct - 2; i >= 0; i--) {
+            while ((hullCount >= lowerCount) && (PointQueue.cross(chain, hullCount, xy[2 * i], xy[2 * i + 1]) <= 0.0)) {
+                hullCount--;
+            }
+            chain[2 * hullCount] = xy[2 * i];
+            chain[2 * hullCount + 1] = xy[2 * i + 1];
+            hullCount++;
+        }
+        hullCount--; // the last vertex is the first
+
+        System.arraycopy(chain, 0, xy, 0, 2 * hullCount);
+        return hullCount;
+    }
+
+    // Tests whether a point is within or on a hull, by a binary search of the
+    // wedges about the first vertex.
+    private static boolean isInHull(double[] hull, int hullCount, double x, double y) {
+        switch (hullCount) {
+            case 0:
+                return false;
+            case 1:
+                return (x == hull[0]) && (y == hull[1]);
+            case 2:
+                return (PointQueue.cross(hull, 0, 1, x, y) == 0.0)
+                        && (x >= Math.min(hull[0], hull[2])) && (x <= Math.max(hull[0], hull[2]))
+                        && (y >= Math.min(hull[1], hull[3])) && (y <= Math.max(hull[1], hull[3]));
+            default:
+                if ((PointQueue.cross(hull, 0, 1, x, y) < 0.0) || (PointQueue.cross(hull, 0, hullCount - 1, x, y) > 0.0)) {
+                    return false;
+                }
+                // the last vertex i with the point left of or on the ray from vertex 0 to i
+                int low = 1;
+                int high = hullCount - 1;
+                while (high - low > 1) {
+                    int middle = (low + high) >>> 1;
+                    if (PointQueue.cross(hull, 0, middle, x, y) >= 0.0) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                return PointQueue.cross(hull, low, low + 1, x, y) >= 0.0;
+        }
+    }
+
+    // Tests whether a point is one of the vertices of a hull.
+    private static boolean isHullVertex(double[] hull, int hullCount, double x, double y) {
+        for (int i = 0; i < hullCount; i++) {
+            if ((hull[2 * i] == x) && (hull[2 * i + 1] == y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The cross product of hull vertices o and a and a point, which is
+    // positive for a counter-clockwise turn.
+    private static double cross(double[] hull, int o, int a, double x, double y) {
+        double oX = hull[2 * o];
+        double oY = hull[2 * o + 1];
+        return (hull[2 * a] - oX) * (y - oY) - (hull[2 * a + 1] - oY) * (x - oX);
+    }
+
+    // The cross product of the last two chain vertices and a point, which is
+    // positive for a counter-clockwise turn.
+    private static double cross(double[] chain, int chainCount, double x, double y) {
+        double oX = chain[2 * (chainCount - 2)];
+        double oY = chain[2 * (chainCount - 2) + 1];
+        double aX = chain[2 * (chainCount - 1)];
+        double aY = chain[2 * (chainCount - 1) + 1];
+        return (aX - oX) * (y - oY) - (aY - oY) * (x - oX);
+    }
+
+    // Sorts packed x, y coordinates by x, then y (quicksort, then insertion
+    // sort of the short ranges).
+    private static void sortPoints(double[] xy, int low, int high) {
+        while (high - low > INSERTION_SORT_SIZE) {
+            int middle = (low + high) >>> 1;
+            double pivotX = xy[2 * middle];
+            double pivotY = xy[2 * middle + 1];
+            int i = low;
+            int j = high - 1;
+            while (i <= j) {
+                while (PointQueue.compare(xy, i, pivotX, pivotY) < 0) {
+                    i++;
+                }
+                while (PointQueue.compare(xy, j, pivotX, pivotY) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    PointQueue.swap(xy, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse on the shorter range, loop on the longer
+            if (j + 1 - low < high - i) {
+                PointQueue.sortPoints(xy, low, j + 1);
+                low = i;
+            } else {
+                PointQueue.sortPoints(xy, i, high);
+                high = j + 1;
+            }
+        }
+        for (int i = low + 1; i < high; i++) {
+            for (int j = i; (j > low) && (PointQueue.compare(xy, j, xy[2 * (j - 1)], xy[2 * (j - 1) + 1]) < 0); j--) {
+                PointQueue.swap(xy, j, j - 1);
+            }
+        }
+    }
+
+    private static int compare(double[] xy, int i, double x, double y) {
+        if (xy[2 * i] != x) {
+            return (xy[2 * i] < x) ? -1 : 1;
+        }
+        if (xy[2 * i + 1] != y) {
+            return (xy[2 * i + 1] < y) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private static void swap(double[] xy, int i, int j) {
+        double x = xy[2 * i];
+        double y = xy[2 * i + 1];
+        xy[2 * i] = xy[2 * j];
+        xy[2 * i + 1] = xy[2 * j + 1];
+        xy[2 * j] = x;
+        xy[2 * j + 1] = y;
     }
 }
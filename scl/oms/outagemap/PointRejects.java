@@ -0,0 +1,154 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the customer points that are not mapped, by reason, over a cycle,
+ * and keeps a random sample of each reason as examples (reservoir sampling),
+ * so that the examples are drawn from the whole cycle rather than from its
+ * first rows. The rejections are logged once per cycle, as one summary line
+ * and the examples, rather than as a line per point, which bad GIS data would
+ * turn into thousands of lines.
+ *
+ * @author jstewart
+ */
+public class PointRejects {
+
+    /**
+     * The reasons a customer point is not mapped.
+     */
+    public enum Reason {
+
+        DISTANCE_EXCEEDED("distance exceeded"),
+        OUTSIDE_TERRITORY("outside service territory"),
+        NULL_COORDINATES("null coordinates"),
+        PROJECTION_FAILED("projection failed");
+
+        private final String label;
+
+        Reason(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the label of the reason, as logged
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final AtomicIntegerArray counts = new AtomicIntegerArray(Reason.values().length);
+    private static final Object sampleLock = new Object();
+    private static volatile int sampleSize;
+
+    // the examples of each reason, guarded by the sample lock
+    private static final int[] sampleCounts = new int[Reason.values().length];
+    private static long[][] sampleSupplyIdxs = new long[Reason.values().length][0];
+    private static double[][] sampleXs = new double[Reason.values().length][0];
+    private static double[][] sampleYs = new double[Reason.values().length][0];
+
+    private PointRejects() {
+        super();
+    }
+
+    /**
+     * Counts a rejected point, and keeps it as an example in place of an
+     * earlier one with the chance that leaves each of the reason's points in
+     * the cycle equally likely to be among the rejectSampleSize examples.
+     *
+     * @param reason the reason the point is not mapped
+     * @param supplyIdx OMS/NMS SUPPLY_IDX
+     * @param x the x coordinate of the point, as read or as projected
+     * @param y the y coordinate of the point, as read or as projected
+     */
+    public static void reject(Reason reason, long supplyIdx, double x, double y) {
+        int count = counts.incrementAndGet(reason.ordinal());
+        int size = sampleSize;
+        // the nth point replaces an example with the chance size / n, so only
+        // the few points kept take the lock
+        int slot = (count <= size) ? count - 1 : ThreadLocalRandom.current().nextInt(count);
+        if (slot >= size) {
+            return;
+        }
+        synchronized (sampleLock) {
+            int r = reason.ordinal();
+            if (sampleCounts[r] < sampleSupplyIdxs[r].length) {
+                slot = sampleCounts[r]++; // the points may take the lock out of the order counted
+            } else if (slot >= sampleSupplyIdxs[r].length) {
+                return; // reset meanwhile
+            }
+            sampleSupplyIdxs[r][slot] = supplyIdx;
+            sampleXs[r][slot] = x;
+            sampleYs[r][slot] = y;
+        }
+    }
+
+    /**
+     * Clears the counts and examples, such as at the start of a cycle.
+     */
+    public static void reset() {
+        synchronized (sampleLock) {
+            int size = Math.max(0, Config.INSTANCE.getRejectSampleSize());
+            for (Reason reason : Reason.values()) {
+                counts.set(reason.ordinal(), 0);
+                sampleCounts[reason.ordinal()] = 0;
+                sampleSupplyIdxs[reason.ordinal()] = new long[size];
+                sampleXs[reason.ordinal()] = new double[size];
+                sampleYs[reason.ordinal()] = new double[size];
+            }
+            sampleSize = size;
+        }
+    }
+
+    /**
+     * @param reason the reason
+     * @return the number of points rejected for the reason since the reset
+     */
+    public static int getCount(Reason reason) {
+        return counts.get(reason.ordinal());
+    }
+
+    /**
+     * @return the number of points rejected for any reason since the reset
+     */
+    public static int getTotal() {
+        int total = 0;
+        for (Reason reason : Reason.values()) {
+            total += counts.get(reason.ordinal());
+        }
+        return total;
+    }
+
+    /**
+     * Logs the counts of the rejected points, and the examples of each reason.
+     *
+     * @throws IOException if the logger has not been created
+     */
+    public static void logSummary() throws IOException {
+        Logger log = Log.getLogger();
+        log.log(Level.INFO, "Rejected point metric: {0} point(s) not mapped; {1} {2}, {3} {4}, {5} {6}, {7} {8}. "
+                + "(environment={9})",
+                new Object[]{PointRejects.getTotal(),
+                    PointRejects.getCount(Reason.DISTANCE_EXCEEDED), Reason.DISTANCE_EXCEEDED.getLabel(),
+                    PointRejects.getCount(Reason.OUTSIDE_TERRITORY), Reason.OUTSIDE_TERRITORY.getLabel(),
+                    PointRejects.getCount(Reason.NULL_COORDINATES), Reason.NULL_COORDINATES.getLabel(),
+                    PointRejects.getCount(Reason.PROJECTION_FAILED), Reason.PROJECTION_FAILED.getLabel(),
+                    Config.INSTANCE.getEnvironmentLabel()});
+        synchronized (sampleLock) {
+            for (Reason reason : Reason.values()) {
+                for (int i = 0; i < sampleCounts[reason.ordinal()]; i++) {
+                    log.log(Level.INFO, "Rejected point example, {0}: supply node {1} at "
+                            + "({2,number,0.######}, {3,number,0.######}) (environment={4})",
+                            new Object[]{reason.getLabel(), Long.toString(sampleSupplyIdxs[reason.ordinal()][i]),
+                                sampleXs[reason.ordinal()][i], sampleYs[reason.ordinal()][i],
+                                Config.INSTANCE.getEnvironmentLabel()});
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the polygon of each supply node, keyed by SUPPLY_IDX, along with a
+ * fingerprint of its customers and of the geometry settings, so that a
+ * supply node that reports the same customers as before is not recomputed.
+ * The fingerprint is an order-independent hash of the customer coordinates,
+ * quantized to the polygonCacheQuantumDegrees, which PointQueue keeps as
+ * points are added and removed.
+ *
+ * The least recently used entries are evicted beyond polygonCacheMaxEntries,
+ * and entries unused for polygonCacheMaxAgeHours are dropped when the cache
+ * is saved or loaded. The cache is kept between runs in the polygonCacheFile,
+ * if configured:
+ *
+ * header: magic (int), version (int), entry count (int)
+ * entry: SUPPLY_IDX (long), fingerprint (long), last used time (long),
+ * vertex count (int), then x (double), y (double) of each vertex
+ *
+ * @author jstewart
+ */
+public class PolygonCache {
+
+    static final int MAGIC = 0x4F4D5043; // "OMPC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 12;
+    static final int ENTRY_BYTES = 28; // before the vertices
+
+    private static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+    private static final LinkedHashMap<Long, Entry> entries = new LinkedHashMap(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return this.size() > Config.INSTANCE.getPolygonCacheMaxEntries();
+        }
+    };
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger misses = new AtomicInteger();
+
+    // A cached polygon, as the x, y of each vertex of its one ring.
+    private static class Entry {
+
+        private final long fingerprint;
+        private final double[] ring;
+        private long lastUsedMillis;
+
+        private Entry(long fingerprint, double[] ring, long lastUsedMillis) {
+            this.fingerprint = fingerprint;
+            this.ring = ring;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+    }
+
+    private PolygonCache() {
+        super();
+    }
+
+    /**
+     * @return true if the polygonCacheOn
+     */
+    public static boolean isEnabled() {
+        return Config.INSTANCE.isPolygonCacheOn();
+    }
+
+    /**
+     * Hashes one customer point, to be summed into a supply node's
+     * order-independent point hash.
+     *
+     * @param x the x coordinate, in the geometry coordinate system
+     * @param y the y coordinate, in the geometry coordinate system
+     * @return the hash of the quantized point
+     */
+    public static long hashPoint(double x, double y) {
+        double quantum = Config.INSTANCE.getPolygonCacheQuantumDegrees() * Config.INSTANCE.getGeometryUnitsPerDegree();
+        long quantizedX = Math.round(x / quantum);
+        long quantizedY = Math.round(y / quantum);
+        return PolygonCache.mix(quantizedX * 0x9E3779B97F4A7C15L + quantizedY);
+    }
+
+    /**
+     * Provides the fingerprint of a supply node, from its point hash and count
+     * and from the geometry settings that the polygon depends on.
+     *
+     * @param pointHashSum the sum of .hashPoint(x, y) of each point
+     * @param pointCount the number of points
+     * @return the fingerprint
+     */
+    public static long getFingerprint(long pointHashSum, int pointCount) {
+        return PolygonCache.mix(pointHashSum ^ PolygonCache.mix(PolygonCache.getSettingsFingerprint() ^ pointCount));
+    }
+
+    /**
+     * Provides a fingerprint of the geometry settings that a supply node
+     * polygon depends on, so that polygons computed under other settings are
+     * not reused.
+     *
+     * @return the fingerprint of the settings
+     */
+    public static long getSettingsFingerprint() {
+        Config config = Config.INSTANCE;
+        long settings = Double.doubleToLongBits(config.getBufferDistDegrees());
+        settings = PolygonCache.mix(settings ^ Double.doubleToLongBits(config.getDensifyDistDegrees()));
+        settings = PolygonCache.mix(settings ^ config.getDensifyMaxVertices());
+        settings = PolygonCache.mix(settings ^ Double.doubleToLongBits(config.getPointExpandDegrees()));
+        settings = PolygonCache.mix(settings ^ Double.doubleToLongBits(config.getPointSnapDegrees()));
+        settings = PolygonCache.mix(settings ^ Double.doubleToLongBits(config.getGeometryUnitsPerDegree()));
+        settings = PolygonCache.mix(settings ^ Double.doubleToLongBits(config.getPolygonCacheQuantumDegrees()));
+        settings = PolygonCache.mix(settings ^ Double.doubleToLongBits(config.getServiceEnvelope().getCenterY()));
+        settings = PolygonCache.mix(settings ^ config.getGeometryProjWKID());
+        return PolygonCache.mix(settings ^ ((config.isBufferOn() ? 1 : 0) | (config.isConvexBufferOn() ? 2 : 0)));
+    }
+
+    /**
+     * Provides a supply node's cached polygon, counting the hit or miss.
+     *
+     * @param supplyIdx OMS/NMS SUPPLY_IDX
+     * @param fingerprint the supply node's fingerprint
+     * @return a new copy of the cached polygon, or null if there is none for
+     * the fingerprint
+     */
+    public static Polygon get(long supplyIdx, long fingerprint) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(supplyIdx);
+            if ((entry != null) && (entry.fingerprint == fingerprint)) {
+                entry.lastUsedMillis = System.currentTimeMillis();
+            } else {
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+
+        // a copy, as the polygons are changed when they are merged and cleaned
+        double[] ring = entry.ring;
+        Polygon polygon = new Polygon();
+        polygon.startPath(ring[0], ring[1]);
+        for (int i = 2; i < ring.length; i += 2) {
+            polygon.lineTo(ring[i], ring[i + 1]);
+        }
+        return polygon;
+    }
+
+    /**
+     * Caches a supply node's polygon, replacing any polygon cached for an
+     * earlier fingerprint. Polygons of more than one ring are not cached.
+     *
+     * @param supplyIdx OMS/NMS SUPPLY_IDX
+     * @param fingerprint the supply node's fingerprint
+     * @param polygon the polygon
+     */
+    public static void put(long supplyIdx, long fingerprint, Polygon polygon) {
+        if ((polygon == null) || (polygon.getPathCount() != 1)) {
+            return;
+        }
+        double[] ring = new double[2 * polygon.getPointCount()];
+        Point2D vertex = new Point2D();
+        for (int i = 0; i < polygon.getPointCount(); i++) {
+            polygon.getXY(i, vertex);
+            ring[2 * i] = vertex.x;
+            ring[2 * i + 1] = vertex.y;
+        }
+        synchronized (entries) {
+            entries.put(supplyIdx, new Entry(fingerprint, ring, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Loads the cache file, replacing the cached polygons. A missing file
+     * leaves the cache empty.
+     *
+     * @param cacheFile the path of the cache file
+     * @throws IOException if the file is not a polygon cache
+     */
+    public static void load(String cacheFile) throws IOException {
+        synchronized (entries) {
+            entries.clear();
+            Path cachePath = Paths.get(cacheFile);
+            if (!Files.exists(cachePath)) {
+                return;
+            }
+            ByteBuffer cacheBuffer = ByteBuffer.wrap(Files.readAllBytes(cachePath)).order(ByteOrder.LITTLE_ENDIAN);
+            if ((cacheBuffer.limit() < HEADER_BYTES) || (cacheBuffer.getInt() != MAGIC)
+                    || (cacheBuffer.getInt() != VERSION)) {
+                throw new IOException(cacheFile + " is not a polygon cache.");
+            }
+            long oldestMillis = System.currentTimeMillis() - Config.INSTANCE.getPolygonCacheMaxAgeHours() * MILLIS_PER_HOUR;
+            int entryCount = cacheBuffer.getInt();
+            for (int i = 0; i < entryCount; i++) {
+                long supplyIdx = cacheBuffer.getLong();
+                long fingerprint = cacheBuffer.getLong();
+                long lastUsedMillis = cacheBuffer.getLong();
+                double[] ring = new double[2 * cacheBuffer.getInt()];
+                cacheBuffer.asDoubleBuffer().get(ring);
+                cacheBuffer.position(cacheBuffer.position() + 8 * ring.length);
+                if (lastUsedMillis >= oldestMillis) {
+                    entries.put(supplyIdx, new Entry(fingerprint, ring, lastUsedMillis));
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the cache file, dropping the entries unused for the max age. The
+     * file is written aside and then moved into place.
+     *
+     * @param cacheFile the path of the cache file
+     * @throws IOException
+     */
+    public static void save(String cacheFile) throws IOException {
+        ByteBuffer cacheBuffer;
+        synchronized (entries) {
+            long oldestMillis = System.currentTimeMillis() - Config.INSTANCE.getPolygonCacheMaxAgeHours() * MILLIS_PER_HOUR;
+            int entryCount = 0;
+            int fileBytes = HEADER_BYTES;
+            for (Entry entry : entries.values()) {
+                if (entry.lastUsedMillis >= oldestMillis) {
+                    entryCount++;
+                    fileBytes += ENTRY_BYTES + 8 * entry.ring.length;
+                }
+            }
+
+            // written in least recently used order, which a load keeps
+            cacheBuffer = ByteBuffer.allocate(fileBytes).order(ByteOrder.LITTLE_ENDIAN);
+            cacheBuffer.putInt(MAGIC).putInt(VERSION).putInt(entryCount);
+            for (Map.Entry<Long, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                if (entry.lastUsedMillis >= oldestMillis) {
+                    cacheBuffer.putLong(mapEntry.getKey()).putLong(entry.fingerprint).putLong(entry.lastUsedMillis);
+                    cacheBuffer.putInt(entry.ring.length / 2);
+                    cacheBuffer.asDoubleBuffer().put(entry.ring);
+                    cacheBuffer.position(cacheBuffer.position() + 8 * entry.ring.length);
+                }
+            }
+        }
+        cacheBuffer.flip();
+
+        Path cachePath = Paths.get(cacheFile);
+        Path writePath = Paths.get(cacheFile + ".tmp");
+        try (FileChannel cacheChannel = FileChannel.open(writePath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (cacheBuffer.hasRemaining()) {
+                cacheChannel.write(cacheBuffer);
+            }
+        }
+        Files.move(writePath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the number of cached polygons
+     */
+    public static int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Clears the hit and miss counts, such as at the start of a cycle.
+     */
+    public static void resetMetrics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return the number of polygons provided from the cache
+     */
+    public static int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of polygons not in the cache, which were computed
+     */
+    public static int getMisses() {
+        return misses.get();
+    }
+
+    // The SplitMix64 finalizer.
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
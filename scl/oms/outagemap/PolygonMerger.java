@@ -0,0 +1,132 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.OperatorUnion;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+import java.util.ArrayList;
+
+/**
+ * This static class merges the supply node polygons of an event whose
+ * interiors intersect, whether they overlap or one contains the other. The
+ * candidate pairs are found by an EnvelopeTree of the polygon envelopes, so
+ * only the polygons whose envelopes intersect are tested, and the pairs that
+ * intersect are joined in a union-find. Each connected group of polygons is
+ * then unioned once, by a cascade of pairwise unions, rather than restarting
+ * the search after every union.
+ *
+ * @author jstewart
+ */
+public class PolygonMerger {
+
+    private PolygonMerger() {
+        super();
+    }
+
+    /**
+     * Merges the polygons whose interiors intersect, directly or through
+     * other polygons.
+     *
+     * @param polygons the polygons, which are not changed
+     * @param sr the spatial reference of the polygons
+     * @return the merged polygons, in the order of the first polygon of each
+     * group; a polygon merged with no other is returned as is
+     */
+    public static Polygon[] merge(Polygon[] polygons, SpatialReference sr) {
+        int count = polygons.length;
+        if (count < 2) {
+            return polygons;
+        }
+
+        Envelope2D[] envelopes = new Envelope2D[count];
+        for (int i = 0; i < count; i++) {
+            envelopes[i] = new Envelope2D();
+            polygons[i].queryEnvelope2D(envelopes[i]);
+        }
+        EnvelopeTree tree = new EnvelopeTree(envelopes);
+
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+        int[] candidates = new int[count];
+        for (int i = 0; i < count; i++) {
+            int candidateCount = tree.query(envelopes[i], candidates);
+            for (int k = 0; k < candidateCount; k++) {
+                int j = candidates[k];
+                if (j <= i) {
+                    continue; // each pair once
+                }
+                int rootI = PolygonMerger.find(parents, i);
+                int rootJ = PolygonMerger.find(parents, j);
+                // a pair already in one group need not be tested
+                if ((rootI != rootJ) && PolygonMerger.interiorsIntersect(polygons[i], polygons[j], sr)) {
+                    // the lower index is the root, which keeps the order of the groups
+                    parents[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+                }
+            }
+        }
+
+        // the groups, by their root
+        ArrayList[] groups = new ArrayList[count];
+        int groupCount = 0;
+        for (int i = 0; i < count; i++) {
+            int root = PolygonMerger.find(parents, i);
+            if (groups[root] == null) {
+                groups[root] = new ArrayList();
+                groupCount++;
+            }
+            groups[root].add(polygons[i]);
+        }
+
+        Polygon[] merged = new Polygon[groupCount];
+        int mergedCount = 0;
+        for (int root = 0; root < count; root++) {
+            ArrayList<Polygon> group = groups[root];
+            if (group == null) {
+                continue;
+            }
+            if (group.size() == 1) {
+                merged[mergedCount++] = group.get(0);
+            } else {
+                Polygon combinedPolygon = PolygonMerger.cascadeUnion(group.toArray(new Polygon[group.size()]), sr);
+                GeometryTool.cleanPolygon(combinedPolygon);
+                merged[mergedCount++] = combinedPolygon;
+            }
+        }
+        return merged;
+    }
+
+    // Unions polygons a pair at a time, level by level, so that each union is
+    // of two polygons of about the same size. The union operator's own union
+    // of many polygons is far slower when they overlap heavily.
+    private static Polygon cascadeUnion(Polygon[] polygons, SpatialReference sr) {
+        OperatorUnion union = OperatorUnion.local();
+        int count = polygons.length;
+        while (count > 1) {
+            int unionCount = 0;
+            for (int i = 0; i < count; i += 2) {
+                polygons[unionCount++] = (i + 1 < count)
+                        ? (Polygon) union.execute(polygons[i], polygons[i + 1], sr, null) : polygons[i];
+            }
+            count = unionCount;
+        }
+        return polygons[0];
+    }
+
+    // True if the polygons share more than boundary, which is when they
+    // overlap or one contains the other.
+    private static boolean interiorsIntersect(Polygon a, Polygon b, SpatialReference sr) {
+        return !GeometryEngine.disjoint(a, b, sr) && !GeometryEngine.touches(a, b, sr);
+    }
+
+    // Finds the root of an element's group, halving the path on the way.
+    private static int find(int[] parents, int element) {
+        while (parents[element] != element) {
+            parents[element] = parents[parents[element]];
+            element = parents[element];
+        }
+        return element;
+    }
+}
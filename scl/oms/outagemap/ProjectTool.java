@@ -2,6 +2,8 @@ package scl.oms.outagemap;
 
 import com.esri.core.geometry.Envelope;
 import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
 
 /**
  * This class provides a very basic tool to re-project points and envelopes. 
@@ -42,16 +44,7 @@ public class ProjectTool {
      * @return a re-projected point
      */
     public static Point project(Point point, int wkidIn, int wkidOut) {
-        if (wkidIn == wkidOut) {
-            return point;
-        }
-        if ((wkidIn == WSP83_WKID) && (wkidOut == WGS84_WKID)) {
-            return ProjectTool.projectWSP83_WKIDtoWGS84_WKID(point);
-        } else if ((wkidIn == WGS84_WKID) && (wkidOut == WSP83_WKID)) {
-            return ProjectTool.projectWGS84_WKIDtoWSP83_WKID(point);
-        } else {
-            throw new Error("Unknown wkid specified by .project method.");
-        }
+        return ProjectTool.getTransform(wkidIn, wkidOut).project(point);
     }
 
     /**
@@ -66,123 +59,208 @@ public class ProjectTool {
         if (wkidIn == wkidOut) {
             return envelope;
         }
+        Transform transform = ProjectTool.getTransform(wkidIn, wkidOut);
+        Point lowerLeftPoint = transform.project(envelope.getLowerLeft());
+        Point upperRightPoint = transform.project(envelope.getUpperRight());
+        return new Envelope(lowerLeftPoint.getX(), lowerLeftPoint.getY(),
+                upperRightPoint.getX(), upperRightPoint.getY());
+    }
+
+    /**
+     * Re-projects the vertices of a polygon.
+     * 
+     * @param polygon
+     * @param wkidIn
+     * @param wkidOut
+     * @return a re-projected copy of the polygon
+     */
+    public static Polygon project(Polygon polygon, int wkidIn, int wkidOut) {
+        if (wkidIn == wkidOut) {
+            return polygon;
+        }
+        int pointCount = polygon.getPointCount();
+        double[] xs = new double[pointCount];
+        double[] ys = new double[pointCount];
+        Point2D xy = new Point2D();
+        for (int i = 0; i < pointCount; i++) {
+            polygon.getXY(i, xy);
+            xs[i] = xy.x;
+            ys[i] = xy.y;
+        }
+        ProjectTool.getTransform(wkidIn, wkidOut).project(xs, ys, pointCount);
+
+        Polygon projectedPolygon = (Polygon) polygon.copy();
+        for (int i = 0; i < pointCount; i++) {
+            xy.setCoords(xs[i], ys[i]);
+            projectedPolygon.setXY(i, xy);
+        }
+        return projectedPolygon;
+    }
+
+    /**
+     * Provides the transform between two coordinate systems, which is
+     * resolved once and then used to project any number of coordinates.
+     * 
+     * @param wkidIn
+     * @param wkidOut
+     * @return the transform
+     */
+    public static Transform getTransform(int wkidIn, int wkidOut) {
+        if (wkidIn == wkidOut) {
+            return IDENTITY;
+        }
         if ((wkidIn == WSP83_WKID) && (wkidOut == WGS84_WKID)) {
-            Point lowerLeftPoint = ProjectTool.projectWSP83_WKIDtoWGS84_WKID(envelope.getLowerLeft());
-            Point upperRightPoint = ProjectTool.projectWSP83_WKIDtoWGS84_WKID(envelope.getUpperRight());
-            return new Envelope(lowerLeftPoint.getX(), lowerLeftPoint.getY(),
-                    upperRightPoint.getX(), upperRightPoint.getY());
+            return WSP83_TO_WGS84;
         } else if ((wkidIn == WGS84_WKID) && (wkidOut == WSP83_WKID)) {
-            Point lowerLeftPoint = ProjectTool.projectWGS84_WKIDtoWSP83_WKID(envelope.getLowerLeft());
-            Point upperRightPoint = ProjectTool.projectWGS84_WKIDtoWSP83_WKID(envelope.getUpperRight());
-            return new Envelope(lowerLeftPoint.getX(), lowerLeftPoint.getY(),
-                    upperRightPoint.getX(), upperRightPoint.getY());
+            return WGS84_TO_WSP83;
         } else {
             throw new Error("Unknown wkid specified by .project method.");
         }
     }
-    
+
     /**
-     * This method re-projects a point in Washington State Plane to 
-     * WGS84 for use in degree-based mapping.
-     * 
-     * The following method was derived from NOAA Manual NOS NGS 5
-     * State Plane Coordinate System of 1983
-     * James E. Stem
-     * March 1990
-     * 
-     * The method is specific to Washington North, Zone # 4601
-     * with regard to defining and computed constants, and other coefficients.
-     * (re: pages 44-45 and appendix C)
-     * 
-     * @param point in Washington State Plane (feet)
-     * @return a re-projected point in WGS84 (degrees)
+     * A re-projection from one coordinate system to another. Coordinates are
+     * projected in bulk from primitive arrays, such as a whole ingest batch,
+     * without allocating a Point per coordinate. The loops are simple counted
+     * loops over the arrays, with the constants precomputed, so that the JIT
+     * compiles them tightly.
      */
-    private static Point projectWSP83_WKIDtoWGS84_WKID(Point point) {
-        final double N_VAL_AT_BO  =  124292.3869;     // No
-        final double E_VAL_AT_LO  =  500000.0;        // Eo
-        final double RADIUS_AT_BO = 5729486.217;      // Ro
-        final double LON_ORIGIN   = 120.8333333333;   // Lo
-        final double LAT_ORIGIN   =  48.1179151437;   // Bo
-        final double SIN_LAT_ORG  =   0.7445203266;   // Sin(Bo)
-
-        final double METER2FEET = 3.2808400000;
-
-        final double G1_COEFFICIENT =  8.993922319E-06;
-        final double G2_COEFFICIENT = -7.072700000E-15;
-        final double G3_COEFFICIENT = -3.673840000E-20;
-        final double G4_COEFFICIENT = -1.470500000E-27;
-        
-        double northing = point.getY(); 
-        double easting  = point.getX();
-        
-        double northingPrime = (northing/METER2FEET) - N_VAL_AT_BO;
-        double eastingPrime  = (easting/METER2FEET) - E_VAL_AT_LO;
-        double radiusPrime   = RADIUS_AT_BO - northingPrime;
-        double gamma         = Math.toDegrees(Math.atan(eastingPrime/radiusPrime));
-        double lambda        = LON_ORIGIN - gamma/(Math.sin(Math.toRadians(LAT_ORIGIN)));
-               
-        double upsilon  = northingPrime - eastingPrime * (Math.tan(Math.toRadians(gamma/2.0)));
-        double deltaPhi = upsilon * (G1_COEFFICIENT + upsilon * (G2_COEFFICIENT + upsilon * (G3_COEFFICIENT + upsilon * (G4_COEFFICIENT))));
-        
-        double omega = LAT_ORIGIN + deltaPhi;
-        
-        /*
-        Note: longitude is returned as a negative (west) value
-        */
-        Point projectedPoint = new Point(-lambda, omega);
-        return projectedPoint;
+    public static abstract class Transform {
+
+        /**
+         * Re-projects coordinates into the output arrays, which may be the
+         * input arrays to re-project in place.
+         * 
+         * @param xIn the input x coordinates
+         * @param yIn the input y coordinates
+         * @param xOut the output x coordinates
+         * @param yOut the output y coordinates
+         * @param count the number of coordinates
+         */
+        public abstract void project(double[] xIn, double[] yIn, double[] xOut, double[] yOut, int count);
+
+        /**
+         * Re-projects coordinates in place.
+         * 
+         * @param xs the x coordinates
+         * @param ys the y coordinates
+         * @param count the number of coordinates
+         */
+        public void project(double[] xs, double[] ys, int count) {
+            this.project(xs, ys, xs, ys, count);
+        }
+
+        /**
+         * Re-projects a point.
+         * 
+         * @param point
+         * @return a re-projected point
+         */
+        public Point project(Point point) {
+            double[] x = {point.getX()};
+            double[] y = {point.getY()};
+            this.project(x, y, x, y, 1);
+            return new Point(x[0], y[0]);
+        }
     }
 
-    /**
-     * This method re-projects a point in WGS84 to Washington State Plane
-     * for use in degree-based mapping.
-     * 
-     * The following method was derived from NOAA Manual NOS NGS 5
-     * State Plane Coordinate System of 1983
-     * James E. Stem
-     * March 1990
+    // The transform between the same coordinate systems.
+    private static final Transform IDENTITY = new Transform() {
+        @Override
+        public void project(double[] xIn, double[] yIn, double[] xOut, double[] yOut, int count) {
+            if (xOut != xIn) {
+                System.arraycopy(xIn, 0, xOut, 0, count);
+            }
+            if (yOut != yIn) {
+                System.arraycopy(yIn, 0, yOut, 0, count);
+            }
+        }
+
+        @Override
+        public Point project(Point point) {
+            return point;
+        }
+    };
+
+    /*
+     * The following constants and transforms were derived from NOAA Manual
+     * NOS NGS 5, State Plane Coordinate System of 1983, James E. Stem, March 1990.
      * 
-     * The method is specific to Washington North, Zone # 4601
-     * with regard to defining and computed constants, and other coefficients.
+     * They are specific to Washington North, Zone # 4601 with regard to
+     * defining and computed constants, and other coefficients.
      * (re: pages 44-45 and appendix C)
-     * 
-     * @param point in WGS84 (degrees)
-     * @return a re-projected point in Washington State Plane (feet)
      */
-    private static Point projectWGS84_WKIDtoWSP83_WKID(Point point) {
-        final double LAT_ORIGIN   =  48.1179151437;   // Bo
-        final double RADIUS_AT_BO = 5729486.217;      // Ro
-        final double LON_ORIGIN   = 120.8333333333;   // Lo
-        final double SIN_LAT_ORG  =   0.7445203266;   // Sin(Bo)
-        final double E_VAL_AT_LO  =  500000.0;        // Eo
-        final double N_VAL_AT_BO  =  124292.3869;     // No
-        
-        final double METER2FEET = 3.2808400000;
-        
-        final double L1_COEFFICIENT = 111186.19440;
-        final double L2_COEFFICIENT =      9.72145;
-        final double L3_COEFFICIENT =      5.61785;
-        final double L4_COEFFICIENT =      0.02763;
-        
-        double deltaPhi = point.getY() - LAT_ORIGIN;
-        double upsilon = deltaPhi*(L1_COEFFICIENT + deltaPhi * (L2_COEFFICIENT + deltaPhi * (L3_COEFFICIENT + deltaPhi * (L4_COEFFICIENT))));
-        
-        double radius = RADIUS_AT_BO - upsilon;
-        
-        /*
-        Note: longitude values are stripped of sign, and assumed to be westerly
-        */
-        double gamma = (LON_ORIGIN - Math.abs(point.getX())) * SIN_LAT_ORG;
-        
-        double eastingPrime = radius * Math.sin(Math.toRadians(gamma));
-        double northingPrime = upsilon + eastingPrime * Math.tan(Math.toRadians(gamma/2.0));
-        
-        double easting = (eastingPrime + E_VAL_AT_LO) * METER2FEET;
-        double northing = (northingPrime + N_VAL_AT_BO) * METER2FEET;     
-        
-        Point projectedPoint = new Point(easting, northing);
-        return projectedPoint;
-    }
+    private static final double N_VAL_AT_BO  =  124292.3869;     // No
+    private static final double E_VAL_AT_LO  =  500000.0;        // Eo
+    private static final double RADIUS_AT_BO = 5729486.217;      // Ro
+    private static final double LON_ORIGIN   = 120.8333333333;   // Lo
+    private static final double LAT_ORIGIN   =  48.1179151437;   // Bo
+    private static final double SIN_LAT_ORG  =   0.7445203266;   // Sin(Bo)
+    private static final double SIN_LAT_ORIGIN = Math.sin(Math.toRadians(LAT_ORIGIN)); // computed Sin(Bo)
+
+    private static final double METER2FEET = 3.2808400000;
+
+    private static final double G1_COEFFICIENT =  8.993922319E-06;
+    private static final double G2_COEFFICIENT = -7.072700000E-15;
+    private static final double G3_COEFFICIENT = -3.673840000E-20;
+    private static final double G4_COEFFICIENT = -1.470500000E-27;
+
+    private static final double L1_COEFFICIENT = 111186.19440;
+    private static final double L2_COEFFICIENT =      9.72145;
+    private static final double L3_COEFFICIENT =      5.61785;
+    private static final double L4_COEFFICIENT =      0.02763;
+
+    /*
+     * Re-projects Washington State Plane (feet) to WGS84 (degrees), for use in
+     * degree-based mapping.
+     */
+    private static final Transform WSP83_TO_WGS84 = new Transform() {
+        @Override
+        public void project(double[] xIn, double[] yIn, double[] xOut, double[] yOut, int count) {
+            for (int i = 0; i < count; i++) {
+                double northingPrime = (yIn[i] / METER2FEET) - N_VAL_AT_BO;
+                double eastingPrime  = (xIn[i] / METER2FEET) - E_VAL_AT_LO;
+                double radiusPrime   = RADIUS_AT_BO - northingPrime;
+                double gamma         = Math.toDegrees(Math.atan(eastingPrime / radiusPrime));
+                double lambda        = LON_ORIGIN - gamma / SIN_LAT_ORIGIN;
+
+                double upsilon  = northingPrime - eastingPrime * (Math.tan(Math.toRadians(gamma / 2.0)));
+                double deltaPhi = upsilon * (G1_COEFFICIENT + upsilon * (G2_COEFFICIENT + upsilon * (G3_COEFFICIENT + upsilon * (G4_COEFFICIENT))));
+
+                /*
+                Note: longitude is returned as a negative (west) value
+                */
+                xOut[i] = -lambda;
+                yOut[i] = LAT_ORIGIN + deltaPhi;
+            }
+        }
+    };
+
+    /*
+     * Re-projects WGS84 (degrees) to Washington State Plane (feet).
+     */
+    private static final Transform WGS84_TO_WSP83 = new Transform() {
+        @Override
+        public void project(double[] xIn, double[] yIn, double[] xOut, double[] yOut, int count) {
+            for (int i = 0; i < count; i++) {
+                double deltaPhi = yIn[i] - LAT_ORIGIN;
+                double upsilon = deltaPhi * (L1_COEFFICIENT + deltaPhi * (L2_COEFFICIENT + deltaPhi * (L3_COEFFICIENT + deltaPhi * (L4_COEFFICIENT))));
+
+                double radius = RADIUS_AT_BO - upsilon;
+
+                /*
+                Note: longitude values are stripped of sign, and assumed to be westerly
+                */
+                double gamma = (LON_ORIGIN - Math.abs(xIn[i])) * SIN_LAT_ORG;
+
+                double eastingPrime = radius * Math.sin(Math.toRadians(gamma));
+                double northingPrime = upsilon + eastingPrime * Math.tan(Math.toRadians(gamma / 2.0));
+
+                xOut[i] = (eastingPrime + E_VAL_AT_LO) * METER2FEET;
+                yOut[i] = (northingPrime + N_VAL_AT_BO) * METER2FEET;
+            }
+        }
+    };
     
     public static void main(String[] args) {
         
@@ -195,27 +273,27 @@ public class ProjectTool {
         Point outputPoint = new Point();
         
         inputPoint.setXY(1257035.46981118, 287618.34930072);
-        outputPoint = ProjectTool.projectWSP83_WKIDtoWGS84_WKID(inputPoint);
+        outputPoint = WSP83_TO_WGS84.project(inputPoint);
         System.out.println("Point " + inputPoint.toString() + ", projected to " + outputPoint.toString());
-        inputPoint = ProjectTool.projectWGS84_WKIDtoWSP83_WKID(outputPoint);
+        inputPoint = WGS84_TO_WSP83.project(outputPoint);
         System.out.println("Point " + outputPoint.toString() + ", projected to " + inputPoint.toString());
         
         inputPoint.setXY(1245565.87367640, 245576.96206835);
-        outputPoint = ProjectTool.projectWSP83_WKIDtoWGS84_WKID(inputPoint);
+        outputPoint = WSP83_TO_WGS84.project(inputPoint);
         System.out.println("Point " + inputPoint.toString() + ", projected to " + outputPoint.toString());
-        inputPoint = ProjectTool.projectWGS84_WKIDtoWSP83_WKID(outputPoint);
+        inputPoint = WGS84_TO_WSP83.project(outputPoint);
         System.out.println("Point " + outputPoint.toString() + ", projected to " + inputPoint.toString());
         
         inputPoint.setXY(1297821.26748053, 179360.69715544);
-        outputPoint = ProjectTool.projectWSP83_WKIDtoWGS84_WKID(inputPoint);
+        outputPoint = WSP83_TO_WGS84.project(inputPoint);
         System.out.println("Point " + inputPoint.toString() + ", projected to " + outputPoint.toString());
-        inputPoint = ProjectTool.projectWGS84_WKIDtoWSP83_WKID(outputPoint);
+        inputPoint = WGS84_TO_WSP83.project(outputPoint);
         System.out.println("Point " + outputPoint.toString() + ", projected to " + inputPoint.toString());
         
         inputPoint.setXY(1262630.39152590, 166156.14787915);
-        outputPoint = ProjectTool.projectWSP83_WKIDtoWGS84_WKID(inputPoint);
+        outputPoint = WSP83_TO_WGS84.project(inputPoint);
         System.out.println("Point " + inputPoint.toString() + ", projected to " + outputPoint.toString());
-        inputPoint = ProjectTool.projectWGS84_WKIDtoWSP83_WKID(outputPoint);
+        inputPoint = WGS84_TO_WSP83.project(outputPoint);
         System.out.println("Point " + outputPoint.toString() + ", projected to " + inputPoint.toString());
 
     }
@@ -0,0 +1,160 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Records the customer out records read from another source, such as the
+ * OMS/NMS database, to a compact binary file that can be replayed with the
+ * ReplayCustomerSource.
+ *
+ * The file has a fixed size header, fixed size records and a string table,
+ * which holds the cause and ETOR texts once each:
+ *
+ * header: magic (int), version (int), record count (long), string table offset (long)
+ * record: x (double), y (double), EVENT_IDX (long), SUPPLY_IDX (long),
+ * CUSTSBYEVENT (int), cause (int string index), ETOR (int string index),
+ * EVENT_BEGIN (long), crew dispatched (byte), CHANGE_TYPE (char), CHANGE_TIME (long)
+ * string table: string count (int), then per string the UTF-8 length (int) and bytes
+ *
+ * @author jstewart
+ */
+public class RecordingCustomerSource implements CustomerSource {
+
+    static final int MAGIC = 0x4F4D5231; // "OMR1"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final int RECORD_BYTES = 63;
+    static final int NULL_STRING = -1;
+
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final CustomerSource recordedSource;
+    private final FileChannel recordingChannel;
+    private final ByteBuffer writeBuffer;
+    private final HashMap<String, Integer> stringIndexes;
+    private final ArrayList<String> strings;
+    private long recordCount;
+
+    /**
+     * Initializes the recorder, replacing any existing recording file.
+     *
+     * @param recordedSource the source to read and record
+     * @param recordingFile the path of the recording file
+     * @throws IOException
+     */
+    public RecordingCustomerSource(CustomerSource recordedSource, String recordingFile) throws IOException {
+        this.recordedSource = recordedSource;
+        recordingChannel = FileChannel.open(Paths.get(recordingFile), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        stringIndexes = new HashMap();
+        strings = new ArrayList();
+        recordCount = 0;
+
+        // the header is written again, complete, when the recording is closed
+        recordingChannel.position(HEADER_BYTES);
+    }
+
+    /**
+     * Reads the next records from the recorded source, and records them.
+     *
+     * @param batch the batch to fill
+     * @return the number of records read, zero at the end of the source
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Override
+    public int read(CustomerBatch batch) throws IOException, SQLException {
+        int recordsRead = recordedSource.read(batch);
+        for (int row = 0; row < recordsRead; row++) {
+            if (writeBuffer.remaining() < RECORD_BYTES) {
+                this.flush();
+            }
+            writeBuffer.putDouble(batch.getCustomerX(row));
+            writeBuffer.putDouble(batch.getCustomerY(row));
+            writeBuffer.putLong(batch.getEventIdx(row));
+            writeBuffer.putLong(batch.getSupplyIdx(row));
+            writeBuffer.putInt(batch.getCustsByEvent(row));
+            writeBuffer.putInt(this.getStringIndex(batch.getCause(row)));
+            writeBuffer.putInt(this.getStringIndex(batch.getEtor(row)));
+            writeBuffer.putLong(batch.getEventBegin(row));
+            writeBuffer.put((byte) (batch.isCrewDispatched(row) ? 1 : 0));
+            writeBuffer.putChar(batch.getChangeType(row));
+            writeBuffer.putLong(batch.getChangeTime(row));
+        }
+        recordCount += recordsRead;
+        return recordsRead;
+    }
+
+    /**
+     * Closes the recorded source and completes the recording file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            recordedSource.close();
+        } finally {
+            this.flush();
+            long stringTableOffset = recordingChannel.position();
+
+            writeBuffer.putInt(strings.size());
+            for (String string : strings) {
+                byte[] stringBytes = string.getBytes(StandardCharsets.UTF_8);
+                if (writeBuffer.remaining() < 4 + stringBytes.length) {
+                    this.flush();
+                }
+                writeBuffer.putInt(stringBytes.length);
+                if (stringBytes.length > writeBuffer.capacity() - 4) {
+                    this.flush();
+                    recordingChannel.write(ByteBuffer.wrap(stringBytes));
+                } else {
+                    writeBuffer.put(stringBytes);
+                }
+            }
+            this.flush();
+
+            writeBuffer.putInt(MAGIC);
+            writeBuffer.putInt(VERSION);
+            writeBuffer.putLong(recordCount);
+            writeBuffer.putLong(stringTableOffset);
+            writeBuffer.flip();
+            recordingChannel.write(writeBuffer, 0);
+            writeBuffer.clear();
+            recordingChannel.close();
+        }
+    }
+
+    // Provides the index of a string in the string table, adding it if new.
+    private int getStringIndex(String string) {
+        if (string == null) {
+            return NULL_STRING;
+        }
+        Integer stringIndex = stringIndexes.get(string);
+        if (stringIndex == null) {
+            stringIndex = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, stringIndex);
+        }
+        return stringIndex;
+    }
+
+    // Writes the buffered bytes to the recording file.
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            recordingChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+}
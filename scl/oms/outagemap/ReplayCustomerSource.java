@@ -0,0 +1,107 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays a recording of customer out records, as written by the
+ * RecordingCustomerSource. The file is memory-mapped, and the cause and ETOR
+ * texts are decoded once when the file is opened, so that records are read
+ * without any per-record allocation.
+ *
+ * @author jstewart
+ */
+public class ReplayCustomerSource implements CustomerSource {
+
+    private final FileChannel replayChannel;
+    private final MappedByteBuffer replayBuffer;
+    private final String[] strings;
+    private final long recordCount;
+    private long recordsRead;
+
+    /**
+     * Opens a recording for replay.
+     *
+     * @param replayFile the path of the recording file
+     * @throws IOException if the file is not a recording
+     */
+    public ReplayCustomerSource(String replayFile) throws IOException {
+        replayChannel = FileChannel.open(Paths.get(replayFile), StandardOpenOption.READ);
+        if (replayChannel.size() > Integer.MAX_VALUE) {
+            replayChannel.close();
+            throw new IOException("Recording " + replayFile + " is too large to map.");
+        }
+        replayBuffer = replayChannel.map(FileChannel.MapMode.READ_ONLY, 0, replayChannel.size());
+        replayBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((replayBuffer.limit() < RecordingCustomerSource.HEADER_BYTES)
+                || (replayBuffer.getInt(0) != RecordingCustomerSource.MAGIC)
+                || (replayBuffer.getInt(4) != RecordingCustomerSource.VERSION)) {
+            replayChannel.close();
+            throw new IOException(replayFile + " is not a complete customers out recording.");
+        }
+        recordCount = replayBuffer.getLong(8);
+        int stringTableOffset = (int) replayBuffer.getLong(16);
+
+        replayBuffer.position(stringTableOffset);
+        strings = new String[replayBuffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] stringBytes = new byte[replayBuffer.getInt()];
+            replayBuffer.get(stringBytes);
+            strings[i] = new String(stringBytes, StandardCharsets.UTF_8);
+        }
+
+        replayBuffer.position(RecordingCustomerSource.HEADER_BYTES);
+        recordsRead = 0;
+    }
+
+    /**
+     * Reads the next records of the recording.
+     *
+     * @param batch the batch to fill
+     * @return the number of records read, zero at the end of the recording
+     */
+    @Override
+    public int read(CustomerBatch batch) {
+        batch.clear();
+        while (!batch.isFull() && (recordsRead < recordCount)) {
+            double customerX = replayBuffer.getDouble();
+            double customerY = replayBuffer.getDouble();
+            long eventIdx = replayBuffer.getLong();
+            long supplyIdx = replayBuffer.getLong();
+            int custsByEvent = replayBuffer.getInt();
+            String cause = this.getString(replayBuffer.getInt());
+            String etor = this.getString(replayBuffer.getInt());
+            long eventBegin = replayBuffer.getLong();
+            boolean crewDispatched = replayBuffer.get() != 0;
+            char changeType = replayBuffer.getChar();
+            long changeTime = replayBuffer.getLong();
+
+            batch.add(customerX, customerY, eventIdx, supplyIdx, custsByEvent,
+                    cause, etor, eventBegin, crewDispatched);
+            batch.setChange(changeType, changeTime);
+            recordsRead++;
+        }
+        return batch.size();
+    }
+
+    /**
+     * Closes the recording.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        replayChannel.close();
+    }
+
+    // Provides a string from the string table.
+    private String getString(int stringIndex) {
+        return (stringIndex == RecordingCustomerSource.NULL_STRING) ? null : strings[stringIndex];
+    }
+}
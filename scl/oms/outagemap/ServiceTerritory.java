@@ -0,0 +1,269 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.OperatorDensifyByLength;
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+
+/**
+ * This class tests whether customer points lie within the service territory,
+ * a polygon in the input coordinate system, so that the points outside are
+ * dropped as read, before they are projected.
+ *
+ * The territory's envelope is divided into a grid of cells, each precomputed
+ * as inside, outside or on the boundary of the territory. Only the points in a
+ * boundary cell are tested against the territory's edges, and then only
+ * against the edges that cross the point's row of cells.
+ *
+ * @author jstewart
+ */
+public class ServiceTerritory {
+
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte BOUNDARY = 2;
+    private static final double CELL_MARGIN = 1.0e-9; // of a cell's width or height
+
+    private final int gridSize;
+    private final double xMin;
+    private final double yMin;
+    private final double xMax;
+    private final double yMax;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final byte[] cells; // by row * gridSize + column
+
+    // the territory's edges, and the edges crossing each row of cells
+    private final double[] edgeX1;
+    private final double[] edgeY1;
+    private final double[] edgeX2;
+    private final double[] edgeY2;
+    private final int[][] rowEdges;
+
+    /**
+     * Initializes the service territory, and builds its grid.
+     *
+     * @param territory the service territory
+     * @param territoryWkid the territory's wkid
+     * @param inputWkid the wkid of the points tested, see .contains(x, y)
+     * @param gridSize the number of rows and of columns of the grid
+     */
+    public ServiceTerritory(Polygon territory, int territoryWkid, int inputWkid, int gridSize) {
+        this.gridSize = Math.max(1, gridSize);
+
+        // densify before re-projecting, so that straight edges are bent as needed
+        if (territoryWkid != inputWkid) {
+            Envelope2D extent = new Envelope2D();
+            territory.queryEnvelope2D(extent);
+            double maxLength = Math.max(extent.getWidth(), extent.getHeight()) / this.gridSize;
+            if (maxLength > 0.0) {
+                territory = (Polygon) OperatorDensifyByLength.local().execute(territory, maxLength, null);
+            }
+            territory = ProjectTool.project(territory, territoryWkid, inputWkid);
+        }
+
+        Envelope2D extent = new Envelope2D();
+        territory.queryEnvelope2D(extent);
+        xMin = extent.xmin;
+        yMin = extent.ymin;
+        xMax = extent.xmax;
+        yMax = extent.ymax;
+        cellWidth = Math.max(extent.getWidth(), Double.MIN_NORMAL) / this.gridSize;
+        cellHeight = Math.max(extent.getHeight(), Double.MIN_NORMAL) / this.gridSize;
+
+        int edgeCount = territory.getPointCount();
+        edgeX1 = new double[edgeCount];
+        edgeY1 = new double[edgeCount];
+        edgeX2 = new double[edgeCount];
+        edgeY2 = new double[edgeCount];
+        Point2D start = new Point2D();
+        Point2D end = new Point2D();
+        int edge = 0;
+        for (int path = 0; path < territory.getPathCount(); path++) {
+            int pathStart = territory.getPathStart(path);
+            int pathEnd = territory.getPathEnd(path);
+            for (int vertex = pathStart; vertex < pathEnd; vertex++) {
+                territory.getXY(vertex, start);
+                territory.getXY((vertex + 1 < pathEnd) ? vertex + 1 : pathStart, end); // rings are closed
+                edgeX1[edge] = start.x;
+                edgeY1[edge] = start.y;
+                edgeX2[edge] = end.x;
+                edgeY2[edge] = end.y;
+                edge++;
+            }
+        }
+
+        rowEdges = this.buildRowEdges(edgeCount);
+        cells = new byte[this.gridSize * this.gridSize];
+        this.markBoundaryCells(edgeCount);
+        this.classifyCells();
+    }
+
+    /**
+     * Provides a polygon of an envelope, for a territory that is only known by
+     * its envelope.
+     *
+     * @param envelope the envelope
+     * @return the polygon
+     */
+    public static Polygon toPolygon(Envelope envelope) {
+        Polygon polygon = new Polygon();
+        polygon.addEnvelope(envelope, false);
+        return polygon;
+    }
+
+    /**
+     * Tests a point, in the input coordinate system.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return true if the point is within the service territory, false if not
+     * or if a coordinate is NaN
+     */
+    public boolean contains(double x, double y) {
+        if (!((x >= xMin) && (x <= xMax) && (y >= yMin) && (y <= yMax))) {
+            return false;
+        }
+        int row = this.getRow(y);
+        byte cell = cells[row * gridSize + this.getColumn(x)];
+        if (cell != BOUNDARY) {
+            return cell == INSIDE;
+        }
+        return this.crosses(x, y, row);
+    }
+
+    /**
+     * @return the envelope of the service territory, in the input coordinate
+     * system
+     */
+    public Envelope getEnvelope() {
+        return new Envelope(xMin, yMin, xMax, yMax);
+    }
+
+    // Lists the edges that cross each row of cells.
+    private int[][] buildRowEdges(int edgeCount) {
+        int[] rowEdgeCounts = new int[gridSize];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int lastRow = this.getRow(Math.max(edgeY1[edge], edgeY2[edge]));
+            for (int row = this.getRow(Math.min(edgeY1[edge], edgeY2[edge])); row <= lastRow; row++) {
+                rowEdgeCounts[row]++;
+            }
+        }
+        int[][] edges = new int[gridSize][];
+        for (int row = 0; row < gridSize; row++) {
+            edges[row] = new int[rowEdgeCounts[row]];
+            rowEdgeCounts[row] = 0;
+        }
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int lastRow = this.getRow(Math.max(edgeY1[edge], edgeY2[edge]));
+            for (int row = this.getRow(Math.min(edgeY1[edge], edgeY2[edge])); row <= lastRow; row++) {
+                edges[row][rowEdgeCounts[row]++] = edge;
+            }
+        }
+        return edges;
+    }
+
+    // Marks the cells that an edge passes through, or touches, as boundary cells.
+    private void markBoundaryCells(int edgeCount) {
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int firstColumn = this.getColumn(Math.min(edgeX1[edge], edgeX2[edge]));
+            int lastColumn = this.getColumn(Math.max(edgeX1[edge], edgeX2[edge]));
+            int firstRow = this.getRow(Math.min(edgeY1[edge], edgeY2[edge]));
+            int lastRow = this.getRow(Math.max(edgeY1[edge], edgeY2[edge]));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    if ((cells[row * gridSize + column] != BOUNDARY) && this.intersectsCell(edge, row, column)) {
+                        cells[row * gridSize + column] = BOUNDARY;
+                    }
+                }
+            }
+        }
+    }
+
+    // Classifies the other cells by testing their centers. No edge passes
+    // between neighboring cells of a row that are not boundary cells, so only
+    // the first cell of each run of them is tested.
+    private void classifyCells() {
+        for (int row = 0; row < gridSize; row++) {
+            double centerY = yMin + (row + 0.5) * cellHeight;
+            byte runCell = BOUNDARY;
+            for (int column = 0; column < gridSize; column++) {
+                int cell = row * gridSize + column;
+                if (cells[cell] == BOUNDARY) {
+                    runCell = BOUNDARY;
+                    continue;
+                }
+                if (runCell == BOUNDARY) {
+                    double centerX = xMin + (column + 0.5) * cellWidth;
+                    runCell = this.crosses(centerX, centerY, row) ? INSIDE : OUTSIDE;
+                }
+                cells[cell] = runCell;
+            }
+        }
+    }
+
+    // Tests a point by the crossing number of a ray cast to its east, counting
+    // only the edges crossing the point's row, which are the only edges the
+    // ray may cross.
+    private boolean crosses(double x, double y, int row) {
+        boolean inside = false;
+        for (int edge : rowEdges[row]) {
+            double y1 = edgeY1[edge];
+            double y2 = edgeY2[edge];
+            if ((y1 > y) != (y2 > y)) {
+                double crossingX = edgeX1[edge] + (y - y1) * (edgeX2[edge] - edgeX1[edge]) / (y2 - y1);
+                if (x < crossingX) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    // Clips an edge to a cell (Liang-Barsky), returning true if any of it remains.
+    private boolean intersectsCell(int edge, int row, int column) {
+        double x1 = edgeX1[edge];
+        double y1 = edgeY1[edge];
+        double dx = edgeX2[edge] - x1;
+        double dy = edgeY2[edge] - y1;
+        // the cell is grown by a hair, for the rounding of .getRow(y) and .getColumn(x)
+        double cellXMin = xMin + column * cellWidth - cellWidth * CELL_MARGIN;
+        double cellYMin = yMin + row * cellHeight - cellHeight * CELL_MARGIN;
+        double cellXMax = xMin + (column + 1) * cellWidth + cellWidth * CELL_MARGIN;
+        double cellYMax = yMin + (row + 1) * cellHeight + cellHeight * CELL_MARGIN;
+        double[] clip = {0.0, 1.0};
+        return ServiceTerritory.clip(-dx, x1 - cellXMin, clip)
+                && ServiceTerritory.clip(dx, cellXMax - x1, clip)
+                && ServiceTerritory.clip(-dy, y1 - cellYMin, clip)
+                && ServiceTerritory.clip(dy, cellYMax - y1, clip);
+    }
+
+    // Narrows the parameter range [clip[0], clip[1]] of an edge by one side of a cell.
+    private static boolean clip(double p, double q, double[] clip) {
+        if (p == 0.0) {
+            return q >= 0.0;
+        }
+        double t = q / p;
+        if (p < 0.0) {
+            if (t > clip[1]) {
+                return false;
+            }
+            clip[0] = Math.max(clip[0], t);
+        } else {
+            if (t < clip[0]) {
+                return false;
+            }
+            clip[1] = Math.min(clip[1], t);
+        }
+        return true;
+    }
+
+    private int getRow(double y) {
+        return Math.max(0, Math.min(gridSize - 1, (int) ((y - yMin) / cellHeight)));
+    }
+
+    private int getColumn(double x) {
+        return Math.max(0, Math.min(gridSize - 1, (int) ((x - xMin) / cellWidth)));
+    }
+}
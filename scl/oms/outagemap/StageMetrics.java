@@ -0,0 +1,184 @@
+package scl.oms.outagemap;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonWriter;
+
+/**
+ * Collects the latency of each pipeline stage, one sample per batch or per
+ * event, and reports the count, total, p50, p95 and max of each stage as JSON
+ * and CSV. Samples are only collected while enabled, such as by the
+ * StageTimingHarness.
+ *
+ * @author jstewart
+ */
+public class StageMetrics {
+
+    /**
+     * The pipeline stages, and the unit of work timed by each sample.
+     */
+    public enum Stage {
+
+        DECODE("batch"),
+        PROJECT("batch"),
+        FILTER("batch"),
+        ASSEMBLE("batch"),
+        HULL_BUFFER("event"),
+        MERGE("event"),
+        GEOMETRY("event"),
+        KML_WRITE("event"),
+        FEATURE_CLASS_WRITE("event"),
+        DATABASE_WRITE("event");
+
+        private final String unit;
+
+        Stage(String unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * @return the unit of work timed by each sample
+         */
+        public String getUnit() {
+            return unit;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static volatile boolean enabled = false;
+    private static final long[][] samples = new long[Stage.values().length][INITIAL_CAPACITY];
+    private static final int[] sampleCounts = new int[Stage.values().length];
+
+    private StageMetrics() {
+        super();
+    }
+
+    /**
+     * @return true if samples are being collected
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled true to collect samples
+     */
+    public static void setEnabled(boolean enabled) {
+        StageMetrics.enabled = enabled;
+    }
+
+    /**
+     * Records one sample of a stage, if enabled.
+     *
+     * @param stage the stage
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public static void record(Stage stage, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        int stageIndex = stage.ordinal();
+        synchronized (samples) {
+            if (sampleCounts[stageIndex] == samples[stageIndex].length) {
+                samples[stageIndex] = Arrays.copyOf(samples[stageIndex], samples[stageIndex].length * 2);
+            }
+            samples[stageIndex][sampleCounts[stageIndex]++] = nanos;
+        }
+    }
+
+    /**
+     * Discards all samples.
+     */
+    public static void reset() {
+        synchronized (samples) {
+            Arrays.fill(sampleCounts, 0);
+        }
+    }
+
+    /**
+     * Writes the report of all stages as JSON.
+     *
+     * @param outputFilePath the JSON file
+     * @param cycles the number of cycles sampled
+     * @throws IOException
+     */
+    public static void writeJson(String outputFilePath, int cycles) throws IOException {
+        JsonArrayBuilder stages = Json.createArrayBuilder();
+        for (Stage stage : Stage.values()) {
+            long[] sorted = StageMetrics.getSortedSamples(stage);
+            stages.add(Json.createObjectBuilder()
+                    .add("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .add("unit", stage.getUnit())
+                    .add("count", sorted.length)
+                    .add("totalMillis", StageMetrics.toMillis(StageMetrics.getTotal(sorted)))
+                    .add("p50Millis", StageMetrics.toMillis(StageMetrics.getPercentile(sorted, 50)))
+                    .add("p95Millis", StageMetrics.toMillis(StageMetrics.getPercentile(sorted, 95)))
+                    .add("maxMillis", StageMetrics.toMillis(StageMetrics.getPercentile(sorted, 100))));
+        }
+        try (FileWriter outputFile = new FileWriter(outputFilePath);
+                JsonWriter jsonWriter = Json.createWriter(outputFile)) {
+            jsonWriter.writeObject(Json.createObjectBuilder()
+                    .add("environment", Config.INSTANCE.getEnvironmentLabel())
+                    .add("cycles", cycles)
+                    .add("stages", stages)
+                    .build());
+        }
+    }
+
+    /**
+     * Writes the report of all stages as CSV, one line per stage.
+     *
+     * @param outputFilePath the CSV file
+     * @throws IOException
+     */
+    public static void writeCsv(String outputFilePath) throws IOException {
+        try (FileWriter outputFile = new FileWriter(outputFilePath)) {
+            outputFile.write("stage,unit,count,total_ms,p50_ms,p95_ms,max_ms\r\n");
+            for (Stage stage : Stage.values()) {
+                long[] sorted = StageMetrics.getSortedSamples(stage);
+                outputFile.write(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f\r\n",
+                        stage.name().toLowerCase(Locale.ROOT), stage.getUnit(), sorted.length,
+                        StageMetrics.toMillis(StageMetrics.getTotal(sorted)),
+                        StageMetrics.toMillis(StageMetrics.getPercentile(sorted, 50)),
+                        StageMetrics.toMillis(StageMetrics.getPercentile(sorted, 95)),
+                        StageMetrics.toMillis(StageMetrics.getPercentile(sorted, 100))));
+            }
+        }
+    }
+
+    // Copies and sorts the samples of a stage.
+    private static long[] getSortedSamples(Stage stage) {
+        long[] sorted;
+        synchronized (samples) {
+            sorted = Arrays.copyOf(samples[stage.ordinal()], sampleCounts[stage.ordinal()]);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // Provides the nearest-rank percentile of sorted samples, zero if none.
+    private static long getPercentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static long getTotal(long[] sorted) {
+        long total = 0;
+        for (long sample : sorted) {
+            total += sample;
+        }
+        return total;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,57 @@
+package scl.oms.outagemap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the full pipeline for a number of cycles, as configured, and reports
+ * the latency of each stage (see StageMetrics) as JSON and CSV. It is meant
+ * to be run on a recorded or synthetic input, by setting the inputSource to
+ * "replay" or "synthetic".
+ *
+ * @author jstewart
+ */
+public class StageTimingHarness {
+
+    private static final int DEFAULT_CYCLES = 5;
+
+    /**
+     * @param args the number of cycles (default 5), and the path and name of
+     * the report files without extension (default: stage_timing in the
+     * application path)
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        String applicationPath = OutageMapCreator.startUp();
+        Logger log = Log.getLogger();
+
+        int cycles = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CYCLES;
+        String reportPath = (args.length > 1) ? args[1] : applicationPath + "stage_timing";
+        if ("oracle".equalsIgnoreCase(Config.INSTANCE.getInputSource())) {
+            log.log(Level.WARNING, "Stage timing is running on the OMS/NMS database. (environment={0})",
+                    Config.INSTANCE.getEnvironmentLabel());
+        }
+
+        OutageMapCreator outageMapCreator = new OutageMapCreator(applicationPath);
+        StageMetrics.reset();
+        StageMetrics.setEnabled(true);
+        try {
+            for (int cycle = 0; cycle < cycles; cycle++) {
+                outageMapCreator.runCycle();
+            }
+        } finally {
+            StageMetrics.setEnabled(false);
+            outageMapCreator.shutdown();
+            OutageDataFactory.closeDatabaseConnection();
+            FeatureClassWriter.closeDatabaseConnection();
+        }
+
+        StageMetrics.writeJson(reportPath + ".json", cycles);
+        StageMetrics.writeCsv(reportPath + ".csv");
+        log.log(Level.INFO, "Stage timing of {0} cycle(s) written to {1}.json and .csv (environment={2})",
+                new Object[]{cycles, reportPath, Config.INSTANCE.getEnvironmentLabel()});
+        Log.closeLogger();
+        System.exit(0);
+    }
+}
@@ -1,36 +1,46 @@
 package scl.oms.outagemap;
 
 import com.esri.core.geometry.Envelope;
-import static com.esri.core.geometry.Geometry.Type.Envelope;
-import com.esri.core.geometry.GeometryEngine;
 import com.esri.core.geometry.Polygon;
 import com.esri.core.geometry.Point;
 import com.esri.core.geometry.SpatialReference;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
- * This class represents a supply node.
+ * This class represents the supply nodes of an event. The point queues are
+ * held in an array, by a LongIndex of SUPPLY_IDX, which starts small and
+ * grows, as most events have only one or a few supply nodes.
+ *
+ * The map is guarded by itself: its methods are synchronized, so a supply
+ * node's points may be added by one thread while its event's polygons are
+ * computed on another, and the polygons are invalidated and recomputed
+ * under the same lock.
  *
  * @author stewarjd
- * @param <K> Integer
- * @param <V> HashSet
  */
-public class SupplyNodeMap<K, V> extends HashMap {
+public class SupplyNodeMap {
+
+    private static final int INITIAL_SUPPLY_NODES = 2;
 
+    private LongIndex supplyNodeIndex; // SUPPLY_IDX to position, null once released
+    private long[] supplyIdxs;
+    private PointQueue[] pointQueues;
+    private int supplyNodeCount;
     private Polygon supplyNodePolygon;
     private Point labelPoint;
-    private boolean modifiedFlag; // used to synchronize updates
+    private boolean modifiedFlag; // true once the polygons are out of date, guarded by this map
     private Polygon[] thesePolygons;
+    private boolean released; // true once the point queues are dropped, leaving the polygons
+    private int releasedPointCount;
 
     /**
      * Initializes the supply node map.
      */
     public SupplyNodeMap() {
-        super(Config.INSTANCE.getSupplyNodeMapCapacity(), Config.INSTANCE.getSupplyNodeMapLoading());
+        supplyNodeIndex = new LongIndex(INITIAL_SUPPLY_NODES, Config.INSTANCE.getSupplyNodeMapLoading());
+        supplyIdxs = new long[INITIAL_SUPPLY_NODES];
+        pointQueues = new PointQueue[INITIAL_SUPPLY_NODES];
         modifiedFlag = true;
     }
 
@@ -39,17 +49,140 @@ public class SupplyNodeMap<K, V> extends HashMap {
      *
      * @param supplyNodeId
      * @param point
+     * @return false if the point is too far from the supply node's other
+     * points, and was not added
      */
-    public void addPoint(Long supplyNodeId, Point point) throws Exception {
-        if (super.containsKey(supplyNodeId)) {
-            PointQueue pointQueue = (PointQueue) this.get(supplyNodeId);
-            pointQueue.addPoint(point);
+    public synchronized boolean addPoint(long supplyNodeId, Point point) {
+        return this.addPoint(supplyNodeId, point.getX(), point.getY());
+    }
+
+    /**
+     * Adds a point to the supply node.
+     *
+     * @param supplyNodeId
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return false if the point is too far from the supply node's other
+     * points, and was not added
+     */
+    public synchronized boolean addPoint(long supplyNodeId, double x, double y) {
+        if (released) {
+            throw new IllegalStateException("Point added to supply node " + supplyNodeId + " once its event was released.");
+        }
+        int position = supplyNodeIndex.get(supplyNodeId);
+        if (position >= 0) {
+            PointQueue.Added added = pointQueues[position].addPoint(x, y);
+            if (added == PointQueue.Added.REJECTED) {
+                return false;
+            }
+            if (added == PointQueue.Added.POLYGON_CHANGED) {
+                modifiedFlag = true; // a point within the supply node's hull leaves the polygons unchanged
+            }
         } else {
-            PointQueue<Point> pointQueue = new PointQueue();
-            pointQueue.addPoint(point);
-            this.put(supplyNodeId, pointQueue);
+            PointQueue pointQueue = new PointQueue(supplyNodeId);
+            pointQueue.addPoint(x, y);
+            if (supplyNodeCount == pointQueues.length) {
+                supplyIdxs = Arrays.copyOf(supplyIdxs, 2 * supplyNodeCount);
+                pointQueues = Arrays.copyOf(pointQueues, 2 * supplyNodeCount);
+            }
+            supplyIdxs[supplyNodeCount] = supplyNodeId;
+            pointQueues[supplyNodeCount] = pointQueue;
+            supplyNodeIndex.put(supplyNodeId, supplyNodeCount);
+            supplyNodeCount++;
+            modifiedFlag = true; // set true after every supply node added
+        }
+        return true;
+    }
+
+    /**
+     * Removes a point from a supply node, and removes the supply node once it
+     * has no points left.
+     *
+     * @param supplyNodeId
+     * @param point
+     * @return true if the point was found and removed
+     */
+    public synchronized boolean removePoint(long supplyNodeId, Point point) {
+        if (released) {
+            return false;
+        }
+        int position = supplyNodeIndex.get(supplyNodeId);
+        if (position < 0) {
+            return false;
+        }
+        PointQueue.Removed removed = pointQueues[position].removePoint(point);
+        if (removed == PointQueue.Removed.NOT_FOUND) {
+            return false;
+        }
+        if (removed == PointQueue.Removed.POLYGON_CHANGED) {
+            modifiedFlag = true; // a point within the supply node's hull leaves the polygons unchanged
+        }
+        if (pointQueues[position].isEmpty()) {
+            // the last supply node takes the place of the one removed
+            supplyNodeIndex.remove(supplyNodeId);
+            supplyNodeCount--;
+            if (position != supplyNodeCount) {
+                supplyIdxs[position] = supplyIdxs[supplyNodeCount];
+                pointQueues[position] = pointQueues[supplyNodeCount];
+                supplyNodeIndex.put(supplyIdxs[position], position);
+            }
+            pointQueues[supplyNodeCount] = null;
+            modifiedFlag = true;
+        }
+        return true;
+    }
+
+    /**
+     * Computes a supply node's polygon and drops its points, once all of them
+     * have been added. Points may meanwhile be added to the other supply
+     * nodes, as the supply node is computed under its own lock.
+     *
+     * @param supplyNodeId
+     * @return false if the supply node is not in the map
+     */
+    public boolean releaseSupplyNode(long supplyNodeId) {
+        PointQueue pointQueue;
+        synchronized (this) {
+            int position = released ? -1 : supplyNodeIndex.get(supplyNodeId);
+            if (position < 0) {
+                return false;
+            }
+            pointQueue = pointQueues[position];
         }
-        modifiedFlag = true; // set true after every point added
+        pointQueue.releasePoints();
+        return true;
+    }
+
+    /**
+     * Computes the polygons, if they are out of date, and then drops the
+     * supply nodes and their points, once all of them have been added. The
+     * polygons, label point and counts are kept, but no points may be added
+     * or removed.
+     */
+    public synchronized void releasePoints() {
+        if (released) {
+            return;
+        }
+        this.getPolygons();
+        releasedPointCount = this.getPointCount();
+        supplyNodeIndex = null;
+        supplyIdxs = null;
+        pointQueues = null;
+        released = true;
+    }
+
+    /**
+     * @return the number of supply nodes
+     */
+    public synchronized int size() {
+        return supplyNodeCount;
+    }
+
+    /**
+     * @return true if there are no supply nodes
+     */
+    public synchronized boolean isEmpty() {
+        return supplyNodeCount == 0;
     }
 
     /**
@@ -58,72 +191,54 @@ public class SupplyNodeMap<K, V> extends HashMap {
      *
      * @return Polygons that represent the event's supply nodes.
      */
-    public Polygon[] getPolygons() {
+    public synchronized Polygon[] getPolygons() {
         if (modifiedFlag == false) {
             return thesePolygons;
         }
 
+        long hullStartTime = System.nanoTime();
+
         // compute the envelope of supply nodes
         // this is used to order the supply nodes circularly
         Envelope eventEnvelope = new Envelope();
-        {
-            PointQueue pointQueue;
-            for (Object hashMapValue : this.values()) {
-                pointQueue = (PointQueue) hashMapValue;
-                eventEnvelope.merge(pointQueue.getLabelPoint());
-            }
+        for (int i = 0; i < supplyNodeCount; i++) {
+            eventEnvelope.merge(pointQueues[i].getLabelPoint());
         }
         Point eventCenterPoint = eventEnvelope.getCenter();
 
-        // order the supply node polygons
-        ConcurrentSkipListMap<Double, Polygon> orderedSupplyNodePolygons = new ConcurrentSkipListMap();
-        Iterator<Long> supplyNodeItr = this.keySet().iterator();
-        Long supplyNodeKey;
-        while (supplyNodeItr.hasNext()) {
-            supplyNodeKey = supplyNodeItr.next();
-            PointQueue pointQueue = (PointQueue) this.get(supplyNodeKey);
+        // order the supply node polygons; supply nodes at the same angle are all kept
+        final double[] rotationAngles = new double[this.size()];
+        Polygon[] supplyNodePolygons = new Polygon[this.size()];
+        Integer[] supplyNodeOrder = new Integer[this.size()];
+        for (int supplyNodeIndex = 0; supplyNodeIndex < supplyNodeCount; supplyNodeIndex++) {
+            PointQueue pointQueue = pointQueues[supplyNodeIndex];
 
             Point supplyNodeLabel = pointQueue.getLabelPoint();
-            double rotationAngle = Math.atan2(
+            rotationAngles[supplyNodeIndex] = Math.atan2(
                     (supplyNodeLabel.getY() - eventCenterPoint.getY()),
                     (supplyNodeLabel.getX() - eventCenterPoint.getX()));
-
-            orderedSupplyNodePolygons.put(rotationAngle, pointQueue.getPolygon());
+            supplyNodePolygons[supplyNodeIndex] = pointQueue.getPolygon();
+            supplyNodeOrder[supplyNodeIndex] = supplyNodeIndex;
+        }
+        Arrays.sort(supplyNodeOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(rotationAngles[a], rotationAngles[b]);
+            }
+        });
+        thesePolygons = new Polygon[supplyNodePolygons.length];
+        for (int i = 0; i < thesePolygons.length; i++) {
+            thesePolygons[i] = supplyNodePolygons[supplyNodeOrder[i]];
         }
 
-        ArrayList<Polygon> supplyNodeArray = new ArrayList(orderedSupplyNodePolygons.values());
+        long mergeStartTime = System.nanoTime();
+        StageMetrics.record(StageMetrics.Stage.HULL_BUFFER, mergeStartTime - hullStartTime);
         if (Config.INSTANCE.isMergeOn()) {
-            SpatialReference sr = SpatialReference.create(Config.INSTANCE.getOutputProjWKID());
-
-            // the following conditional do statement loops untill all 
-            // of the polygons in an event are merged (theoretically)
-            boolean mergingOccured;
-            do {
-                mergingOccured = false;
-
-                SEARCH_FOR_OVERLAP:
-                for (Polygon polygonInArray : supplyNodeArray) {
-                    for (Polygon testPolygon : supplyNodeArray) {
-                        if (testPolygon == polygonInArray) {
-                            break;
-                        }
-                        if (GeometryEngine.overlaps(polygonInArray, testPolygon, sr)) {
-                            Polygon combinedPolygon = (Polygon) GeometryEngine.union(new Polygon[]{polygonInArray, testPolygon}, sr);
-                            GeometryTool.cleanPolygon(combinedPolygon);
-                            
-                            supplyNodeArray.remove(testPolygon);
-                            supplyNodeArray.remove(polygonInArray);
-                            supplyNodeArray.add(combinedPolygon);
-                            mergingOccured = true;
-                            break SEARCH_FOR_OVERLAP;
-                        }
-                    }
-                }
-            } while (mergingOccured);
+            // merge the polygons that overlap or contain one another
+            thesePolygons = PolygonMerger.merge(thesePolygons,
+                    SpatialReference.create(Config.INSTANCE.getGeometryProjWKID()));
         }
 
-        thesePolygons = supplyNodeArray.toArray(new Polygon[supplyNodeArray.size()]);
-
         // check again and remove for any interior paths
         // find polygon with greatest number of points (aka largest polygon)
         Polygon largestPolygon = null;
@@ -140,6 +255,17 @@ public class SupplyNodeMap<K, V> extends HashMap {
         // put the label point on the largest polygon
         labelPoint = GeometryTool.getPolygonCenterOfMass(largestPolygon);
 
+        // when computed in the planar input coordinates, project only the finished polygons
+        int geometryWkid = Config.INSTANCE.getGeometryProjWKID();
+        int outputWkid = Config.INSTANCE.getOutputProjWKID();
+        if (geometryWkid != outputWkid) {
+            for (int i = 0; i < thesePolygons.length; i++) {
+                thesePolygons[i] = ProjectTool.project(thesePolygons[i], geometryWkid, outputWkid);
+            }
+            labelPoint = ProjectTool.project(labelPoint, geometryWkid, outputWkid);
+        }
+        StageMetrics.record(StageMetrics.Stage.MERGE, System.nanoTime() - mergeStartTime);
+
         modifiedFlag = false; // set false after every update
         return thesePolygons;
     }
@@ -149,12 +275,13 @@ public class SupplyNodeMap<K, V> extends HashMap {
      * the supply node labels for this event.
      *
      * Note that the label location is computed and set during the .getPolygon()
-     * method and remains unchanged as long as no new points are added.
+     * method and remains unchanged as long as no points are added outside of
+     * the supply node hulls.
      *
      * @return If the getPolygons method had been previously called, then a
      * Point at the centroid of the event, else a null value.
      */
-    public Point getLabelPoint() {
+    public synchronized Point getLabelPoint() {
         if (labelPoint == null) {
             this.getPolygons();
         }
@@ -166,8 +293,8 @@ public class SupplyNodeMap<K, V> extends HashMap {
      *
      * @return count of supply nodes
      */
-    public int getSupplyNodeCount() {
-        return this.size();
+    public synchronized int getSupplyNodeCount() {
+        return supplyNodeCount;
     }
 
     /**
@@ -175,13 +302,13 @@ public class SupplyNodeMap<K, V> extends HashMap {
      *
      * @return count of points in the supply nodes
      */
-    public int getPointCount() {
+    public synchronized int getPointCount() {
+        if (released) {
+            return releasedPointCount;
+        }
         int pointCount = 0;
-        HashMap points;
-        Iterator iterator = this.entrySet().iterator();
-        while (iterator.hasNext()) {
-            points = (HashMap) iterator.next();
-            pointCount += points.size();
+        for (int i = 0; i < supplyNodeCount; i++) {
+            pointCount += pointQueues[i].getPointCount();
         }
         return pointCount;
     }
@@ -0,0 +1,166 @@
+package scl.oms.outagemap;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Point;
+import java.util.Random;
+
+/**
+ * Generates storm-scale customers out for load testing, with the columns of
+ * the customers out data set. Events are placed at random within the service
+ * envelope, each event's supply nodes are scattered around it, and each supply
+ * node's customers are clustered around the supply node. A share of the
+ * customers, the outliers, lie outside of the service envelope.
+ *
+ * The records are generated as they are read, and are the same for the same
+ * seed and parameters.
+ *
+ * @author jstewart
+ */
+public class SyntheticCustomerSource implements CustomerSource {
+
+    private static final long REFERENCE_TIME = 1451606400000L; // 2016-01-01 00:00 UTC
+    private static final long EVENT_IDX_BASE = 9000000L;
+    private static final long SUPPLY_IDX_BASE = 7000000L;
+    private static final long MAX_EVENT_AGE_MILLIS = 12L * 60 * 60 * 1000;
+    private static final double SUPPLY_NODE_SPREAD = 0.1; // of the event spread
+    private static final String[] CAUSES = {"Tree", "Wind", "Equipment Failure", "Under Investigation", null};
+    private static final String[] ETORS = {"Assessing", "1-2 hours", "2-4 hours", "4-8 hours", "Unknown"};
+
+    private final Random random;
+    private final int eventCount;
+    private final int supplyNodesPerEvent;
+    private final int customersPerSupplyNode;
+    private final double outlierRate;
+    private final Envelope envelope;
+    private final int envelopeWkid;
+    private final int customerWkid;
+    private final double eventRadius;
+    private final double supplyNodeRadius;
+
+    // the position of the generator, by [event][supply node][customer]
+    private int event;
+    private int supplyNode;
+    private int customer;
+
+    // the current event and supply node
+    private double eventX;
+    private double eventY;
+    private double supplyNodeX;
+    private double supplyNodeY;
+    private String cause;
+    private String etor;
+    private long eventBegin;
+    private boolean crewDispatched;
+
+    /**
+     * Initializes the generator.
+     *
+     * @param seed the random seed
+     * @param eventCount the number of events
+     * @param supplyNodesPerEvent the number of supply nodes per event
+     * @param customersPerSupplyNode the number of customers per supply node
+     * @param spread the radius that an event's supply nodes are scattered
+     * within, as a share of the smaller side of the envelope
+     * @param outlierRate the share of customers outside of the envelope
+     * @param envelope the service envelope
+     * @param envelopeWkid the envelope's wkid
+     * @param customerWkid the wkid of the customer coordinates generated
+     */
+    public SyntheticCustomerSource(long seed, int eventCount, int supplyNodesPerEvent,
+            int customersPerSupplyNode, double spread, double outlierRate,
+            Envelope envelope, int envelopeWkid, int customerWkid) {
+        random = new Random(seed);
+        this.eventCount = eventCount;
+        this.supplyNodesPerEvent = Math.max(1, supplyNodesPerEvent);
+        this.customersPerSupplyNode = Math.max(1, customersPerSupplyNode);
+        this.outlierRate = outlierRate;
+        this.envelope = envelope;
+        this.envelopeWkid = envelopeWkid;
+        this.customerWkid = customerWkid;
+        eventRadius = spread * Math.min(envelope.getWidth(), envelope.getHeight()) / 2.0;
+        supplyNodeRadius = eventRadius * SUPPLY_NODE_SPREAD;
+        event = 0;
+        supplyNode = 0;
+        customer = 0;
+    }
+
+    /**
+     * Generates the next records.
+     *
+     * @param batch the batch to fill
+     * @return the number of records generated, zero once all are generated
+     */
+    @Override
+    public int read(CustomerBatch batch) {
+        batch.clear();
+        while (!batch.isFull() && (event < eventCount)) {
+            if ((supplyNode == 0) && (customer == 0)) {
+                this.nextEvent();
+            }
+            if (customer == 0) {
+                this.nextSupplyNode();
+            }
+
+            double customerX;
+            double customerY;
+            if (random.nextDouble() < outlierRate) {
+                // beyond the envelope's east or west side
+                double outside = envelope.getWidth() * (0.01 + random.nextDouble());
+                customerX = random.nextBoolean() ? envelope.getXMax() + outside : envelope.getXMin() - outside;
+                customerY = envelope.getYMin() + random.nextDouble() * envelope.getHeight();
+            } else {
+                customerX = this.clampX(supplyNodeX + random.nextGaussian() * supplyNodeRadius / 2.0);
+                customerY = this.clampY(supplyNodeY + random.nextGaussian() * supplyNodeRadius / 2.0);
+            }
+            Point point = ProjectTool.project(new Point(customerX, customerY), envelopeWkid, customerWkid);
+
+            batch.add(point.getX(), point.getY(), EVENT_IDX_BASE + event,
+                    SUPPLY_IDX_BASE + ((long) event * supplyNodesPerEvent) + supplyNode,
+                    supplyNodesPerEvent * customersPerSupplyNode, cause, etor, eventBegin, crewDispatched);
+
+            customer++;
+            if (customer == customersPerSupplyNode) {
+                customer = 0;
+                supplyNode++;
+                if (supplyNode == supplyNodesPerEvent) {
+                    supplyNode = 0;
+                    event++;
+                }
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * Does nothing, the records are generated.
+     */
+    @Override
+    public void close() {
+    }
+
+    // Places the next event, and sets its attributes.
+    private void nextEvent() {
+        eventX = envelope.getXMin() + random.nextDouble() * envelope.getWidth();
+        eventY = envelope.getYMin() + random.nextDouble() * envelope.getHeight();
+        cause = CAUSES[random.nextInt(CAUSES.length)];
+        etor = ETORS[random.nextInt(ETORS.length)];
+        eventBegin = REFERENCE_TIME - (long) (random.nextDouble() * MAX_EVENT_AGE_MILLIS);
+        crewDispatched = random.nextBoolean();
+    }
+
+    // Places the next supply node of the event.
+    private void nextSupplyNode() {
+        double angle = random.nextDouble() * 2.0 * Math.PI;
+        double distance = Math.sqrt(random.nextDouble()) * eventRadius;
+        supplyNodeX = this.clampX(eventX + distance * Math.cos(angle));
+        supplyNodeY = this.clampY(eventY + distance * Math.sin(angle));
+    }
+
+    private double clampX(double x) {
+        return Math.max(envelope.getXMin(), Math.min(envelope.getXMax(), x));
+    }
+
+    private double clampY(double y) {
+        return Math.max(envelope.getYMin(), Math.min(envelope.getYMax(), y));
+    }
+}